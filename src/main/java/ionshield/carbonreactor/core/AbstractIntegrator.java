@@ -0,0 +1,45 @@
+package ionshield.carbonreactor.core;
+
+public abstract class AbstractIntegrator implements ReactorIntegrator {
+    private long acceptedSteps;
+    private long rejectedSteps;
+    private long evaluations;
+
+    protected void countAccepted() {
+        acceptedSteps++;
+    }
+
+    protected void countAccepted(long count) {
+        acceptedSteps += count;
+    }
+
+    protected void countRejected() {
+        rejectedSteps++;
+    }
+
+    protected void countEvaluations(long count) {
+        evaluations += count;
+    }
+
+    @Override
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    @Override
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    public void resetStatistics() {
+        acceptedSteps = 0;
+        rejectedSteps = 0;
+        evaluations = 0;
+    }
+}
@@ -0,0 +1,115 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Lookup table of Arrhenius rate constants k = a * exp(-(E / R) / T) for several reactions over a temperature range.
+ * Values are tabulated on a uniform grid in 1 / T and interpolated with cubic Hermite polynomials using the exact
+ * derivative dk/d(1/T) = -(E / R) * k. The grid spacing h is chosen so that x = (E / R) * h satisfies
+ * x^4 * e^x / 384 <= relative error, which bounds the relative interpolation error of every reaction
+ * (floating-point rounding aside). Outside the table range the rate is evaluated exactly.
+ */
+public final class ArrheniusTable {
+    private final int reactions;
+    private final double[] a;
+    private final double[] er;
+    private final double[] erH;
+
+    private final double uMin;
+    private final double invH;
+    private final int intervals;
+    private final double[] values;
+
+    private final double lowerT;
+    private final double upperT;
+    private final double relativeError;
+
+    /**
+     * @param a Pre-exponential factors
+     * @param er Activation energies divided by the gas constant (E / R)
+     */
+    public ArrheniusTable(double[] a, double[] er, double lowerT, double upperT, double relativeError) {
+        if (a.length != er.length) throw new IllegalArgumentException("Factor and energy counts differ");
+        if (lowerT <= 0 || upperT <= lowerT) throw new IllegalArgumentException("Invalid temperature range");
+        if (relativeError <= 0) throw new IllegalArgumentException("Relative error must be positive");
+
+        this.reactions = a.length;
+        this.a = a.clone();
+        this.er = er.clone();
+        this.lowerT = lowerT;
+        this.upperT = upperT;
+        this.relativeError = relativeError;
+
+        double maxEr = 0;
+        for (double e : er) {
+            maxEr = Math.max(maxEr, Math.abs(e));
+        }
+        double x = Math.pow(384 * relativeError, 0.25);
+        for (int i = 0; i < 4; i++) {
+            x = Math.pow(384 * relativeError / Math.exp(x), 0.25);
+        }
+
+        uMin = 1 / upperT;
+        double uMax = 1 / lowerT;
+        double h = maxEr > 0 ? x / maxEr : uMax - uMin;
+        intervals = Math.max(1, (int)Math.ceil((uMax - uMin) / h));
+        h = (uMax - uMin) / intervals;
+        invH = 1 / h;
+
+        erH = new double[reactions];
+        for (int j = 0; j < reactions; j++) {
+            erH[j] = this.er[j] * h;
+        }
+
+        values = new double[(intervals + 1) * reactions];
+        for (int i = 0; i <= intervals; i++) {
+            double u = uMin + i * h;
+            for (int j = 0; j < reactions; j++) {
+                values[i * reactions + j] = this.a[j] * Math.exp(-this.er[j] * u);
+            }
+        }
+    }
+
+    /**
+     * @param invT Reciprocal temperature, 1 / T
+     * @return Rate constant of the given reaction
+     */
+    public double rate(int reaction, double invT) {
+        double x = (invT - uMin) * invH;
+        if (!(x >= 0 && x < intervals)) {
+            return a[reaction] * Math.exp(-er[reaction] * invT);
+        }
+        int i = (int)x;
+        double s = x - i;
+        double k0 = values[i * reactions + reaction];
+        double k1 = values[(i + 1) * reactions + reaction];
+        double d0 = -erH[reaction] * k0;
+        double d1 = -erH[reaction] * k1;
+
+        double s2 = s * s;
+        double s3 = s2 * s;
+        return (2 * s3 - 3 * s2 + 1) * k0 + (s3 - 2 * s2 + s) * d0 + (3 * s2 - 2 * s3) * k1 + (s3 - s2) * d1;
+    }
+
+    public boolean covers(double t) {
+        return t >= lowerT && t <= upperT;
+    }
+
+    public int getReactions() {
+        return reactions;
+    }
+
+    public int getIntervals() {
+        return intervals;
+    }
+
+    public double getLowerT() {
+        return lowerT;
+    }
+
+    public double getUpperT() {
+        return upperT;
+    }
+
+    public double getRelativeError() {
+        return relativeError;
+    }
+}
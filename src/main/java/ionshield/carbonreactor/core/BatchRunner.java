@@ -0,0 +1,247 @@
+package ionshield.carbonreactor.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Command-line entry point that runs scenarios without any UI:
+ * {@code BatchRunner [-o outputDir] [-d decimation] [-b] [-z] scenario.properties|directory ...}.
+ * Every scenario is a properties file read by {@link Scenario#fromProperties}; a directory stands for all properties files in it.
+ * For a scenario named {@code name} the trajectory goes to {@code name.csv} and the summary to {@code name.result.properties};
+ * a randomized scenario with several realizations also writes ensemble statistics to {@code name.ensemble.csv}.
+ * With {@code -b} every step is also written undecimated to the binary trajectory file {@code name.trj}, see {@link MappedTrajectory},
+ * and with {@code -z} to the compressed trajectory file {@code name.ctr}, see {@link CompressedTrajectory}.
+ * All scenarios run in the same JVM, one after another; a failed scenario is reported and the rest still run.
+ */
+public class BatchRunner {
+    private static final String USAGE = "Usage: BatchRunner [-o outputDir] [-d decimation] [-b] [-z] scenario.properties|directory ...";
+
+    private Path outputDirectory = Paths.get(".");
+    private int decimation = 1;
+    private boolean binary = false;
+    private boolean compressed = false;
+
+    public static void main(String[] args) {
+        BatchRunner runner = new BatchRunner();
+        List<Path> scenarios = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ((args[i].equals("-o") || args[i].equals("-d")) && i + 1 >= args.length) {
+                    System.err.println("Missing value of " + args[i]);
+                    System.err.println(USAGE);
+                    System.exit(2);
+                }
+                if (args[i].equals("-o")) {
+                    runner.setOutputDirectory(Paths.get(args[++i]));
+                }
+                else if (args[i].equals("-d")) {
+                    runner.setDecimation(Integer.parseInt(args[++i]));
+                }
+                else if (args[i].equals("-b")) {
+                    runner.setBinary(true);
+                }
+                else if (args[i].equals("-z")) {
+                    runner.setCompressed(true);
+                }
+                else {
+                    scenarios.addAll(expand(Paths.get(args[i])));
+                }
+            }
+        }
+        catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        if (scenarios.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        int failed = 0;
+        for (Path path : scenarios) {
+            try {
+                long start = System.nanoTime();
+                Scenario scenario = runner.run(path);
+                System.out.println(scenario.getName() + ": done in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            catch (IOException | RuntimeException e) {
+                failed++;
+                System.err.println(path + ": " + e);
+            }
+        }
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static List<Path> expand(Path path) throws IOException {
+        List<Path> res = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.properties")) {
+                for (Path p : stream) {
+                    res.add(p);
+                }
+            }
+            Collections.sort(res);
+        }
+        else {
+            res.add(path);
+        }
+        return res;
+    }
+
+    /**
+     * Reads a scenario file, named after the file unless it sets a name, and runs it
+     */
+    public Scenario run(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        if (!properties.containsKey("name")) {
+            properties.setProperty("name", dot > 0 ? fileName.substring(0, dot) : fileName);
+        }
+        Scenario scenario = Scenario.fromProperties(properties);
+        run(scenario);
+        return scenario;
+    }
+
+    /**
+     * Runs a scenario and writes its trajectory and summary into the output directory
+     */
+    public void run(Scenario scenario) throws IOException {
+        Files.createDirectories(outputDirectory);
+        CarbonReactor reactor = scenario.createReactor();
+        StatisticsSink statistics = new StatisticsSink();
+        CompressedTrajectory archive = new CompressedTrajectory();
+        int made;
+        try (CsvTrajectorySink csv = new CsvTrajectorySink(outputDirectory.resolve(scenario.getName() + ".csv"))) {
+            TrajectorySink sink = new MultiSink(new DecimatingSink(csv, decimation), statistics);
+            if (compressed) {
+                sink = new MultiSink(sink, archive);
+            }
+            if (binary) {
+                try (MappedTrajectoryWriter writer = new MappedTrajectoryWriter(outputDirectory.resolve(scenario.getName() + ".trj"))) {
+                    made = scenario.run(reactor, new MultiSink(sink, writer));
+                }
+            }
+            else {
+                made = scenario.run(reactor, sink);
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("steps=" + scenario.getSteps());
+        lines.add("ticks=" + made);
+        lines.add("steady=" + (made < scenario.getSteps()));
+        lines.add("time=" + reactor.getTime());
+        lines.add("cCH4=" + reactor.getcCH4());
+        lines.add("cC3H4=" + reactor.getcC3H4());
+        lines.add("cO2=" + reactor.getcO2());
+        lines.add("cC=" + reactor.getcC());
+        lines.add("cCO2=" + reactor.getcCO2());
+        lines.add("cCO=" + reactor.getcCO());
+        lines.add("cH2O=" + reactor.getcH2O());
+        lines.add("cH2=" + reactor.getcH2());
+        lines.add("temperature=" + reactor.getTemperature());
+        lines.add("cC.mean=" + statistics.getMean(ReactorKernel.C));
+        lines.add("cC.max=" + statistics.getMax(ReactorKernel.C));
+        lines.add("temperature.mean=" + statistics.getMean(StatisticsSink.TEMPERATURE));
+        lines.add("temperature.min=" + statistics.getMin(StatisticsSink.TEMPERATURE));
+        lines.add("temperature.max=" + statistics.getMax(StatisticsSink.TEMPERATURE));
+
+        if (compressed) {
+            try (OutputStream out = Files.newOutputStream(outputDirectory.resolve(scenario.getName() + ".ctr"))) {
+                archive.write(out);
+            }
+            lines.add("compression=" + archive.getCompressionRatio());
+        }
+
+        if (scenario.isRandomized() && scenario.getRealizations() > 1) {
+            EnsembleRunner runner = new EnsembleRunner(scenario, scenario.getRealizations());
+            runner.setTabulated(scenario.isTabulated());
+            EnsembleRunner.Statistics ensemble = runner.run();
+            writeEnsemble(ensemble, outputDirectory.resolve(scenario.getName() + ".ensemble.csv"));
+            lines.add("realizations=" + ensemble.getRealizations());
+            if (runner.isTabulated()) {
+                lines.add("tabulation.hitRate=" + ensemble.getHitRate());
+                lines.add("tabulation.growRate=" + ensemble.getGrowRate());
+                lines.add("tabulation.addRate=" + ensemble.getAddRate());
+            }
+        }
+
+        if (scenario.isOptimized()) {
+            Scenario.Optimization optimization = scenario.optimize();
+            lines.add("optimum.volume=" + optimization.point.getX());
+            lines.add("optimum.tIn=" + optimization.point.getY());
+            lines.add("optimum.cC=" + optimization.value);
+            lines.add("optimum.steadyStates=" + optimization.steadyStates);
+        }
+        Files.write(outputDirectory.resolve(scenario.getName() + ".result.properties"), lines, StandardCharsets.UTF_8);
+    }
+
+    private static void writeEnsemble(EnsembleRunner.Statistics ensemble, Path path) throws IOException {
+        int[] columns = {EnsembleRunner.CARBON, EnsembleRunner.TEMPERATURE};
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("t,cC.mean,cC.sd,cC.q05,cC.q50,cC.q95,T.mean,T.sd,T.q05,T.q50,T.q95");
+            writer.newLine();
+            StringBuilder line = new StringBuilder();
+            for (int r = 0; r < ensemble.getRecords(); r++) {
+                line.setLength(0);
+                line.append(ensemble.getTime(r));
+                for (int c : columns) {
+                    line.append(',').append(ensemble.getMean(c, r));
+                    line.append(',').append(Math.sqrt(ensemble.getVariance(c, r)));
+                    line.append(',').append(ensemble.getQuantile(c, r, 0.05));
+                    line.append(',').append(ensemble.getQuantile(c, r, 0.5));
+                    line.append(',').append(ensemble.getQuantile(c, r, 0.95));
+                }
+                writer.append(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public void setOutputDirectory(Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    public void setDecimation(int decimation) {
+        if (decimation < 1) throw new IllegalArgumentException("Decimation must be positive");
+        this.decimation = decimation;
+    }
+
+    /**@return Whether the undecimated binary trajectory is written too*/
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**@return Whether the undecimated compressed trajectory is written too*/
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+}
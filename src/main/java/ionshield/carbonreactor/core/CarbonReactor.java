@@ -1,6 +1,13 @@
 package ionshield.carbonreactor.core;
 
+import java.io.*;
+import java.util.function.IntToDoubleFunction;
+
 public class CarbonReactor {
+    private static final int SNAPSHOT_MAGIC = 0x43525350;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_VALUES = 26 + ReactorKernel.SIZE;
+
     private double r =  8.31;//J/mol⋅deg;
 
     private double a1 = 1600;
@@ -18,19 +25,18 @@ public class CarbonReactor {
     private double ct = 1190; //J / kg*deg
     private double volumeRate = 0.7; //m^3 / s
 
-    private double cCH4;
-    private double cC3H4;
-    private double cO2;
-    private double cC;
-    private double cCO2;
-    private double cCO;
-    private double cH2O;
-    private double cH2;
+    private final double[] state = ReactorKernel.newState();
+    private ReactorKernel kernel;
+
+    private boolean rateTableEnabled = false;
+    private double rateTableLowerT = 200; //deg
+    private double rateTableUpperT = 5000; //deg
+    private double rateTableError = 1e-9;
+    private ArrheniusTable rateTable;
 
     private double tIn; //deg
     private double volume; //m^3
 
-    private double q; //J
     private double time = 0; //s
 
     private double mCH4 = 0.01604;
@@ -43,60 +49,217 @@ public class CarbonReactor {
     private double mH2 = 0.00202;
 
     public void init(double cCH4In, double cC3H4In, double cO2In, double volume, double t) {
-        this.volume = volume;
-        cCH4 = cCH4In;
-        cC3H4 = cC3H4In;
-        cO2 = cO2In;
-        cC = 0;
-        cCO2 = 0;
-        cCO = 0;
-        cH2O = 0;
-        cH2 = 0;
-        q = t * volume * ct * density;
+        setVolume(volume);
+        getKernel().init(state, cCH4In, cC3H4In, cO2In, t);
     }
 
     public void tick(double seconds, double cCH4In, double cC3H4In, double cO2In, double tIn) {
-        double ts = volume / volumeRate;
-        double mass = volume * density;
-        double massRate = volumeRate * density;
-        double heatCapacity = ct * mass;
-        double t = q / heatCapacity;
-
-        double k1 = a1 * Math.exp(-e1 / (r * t));
-        double k2 = a2 * Math.exp(-e2 / (r * t));
-        double k3 = a3 * Math.exp(-e3 / (r * t));
-        double r1 = k1 * cCH4 * cO2;
-        double r2 = k2 * cC3H4 * cO2;
-        double r3 = k3 * cC3H4;
-
-        double dcCH4 = (1 / ts) * (cCH4In - cCH4) - r1;
-        double dcC3H4 = (1 / ts) * (cC3H4In - cC3H4) - 2 * r2 - r3;
-        double dcO2 = (1 / ts) * (cO2In - cO2) - 2 * r1 - 5 * r2;
-
-        double dcC = -(1 / ts) * cC + 3 * r3;
-        double dcCO2 = -(1 / ts) * cCO2 + r1;
-        double dcCO = -(1 / ts) * cCO + 6 * r2;
-        double dcH2O = -(1 / ts) * cH2O + 2 * r1 + 4 * r2;
-        double dcH2 = -(1 / ts) * cH2 + 2 * r3;
-
-        double qIn = ct * massRate * tIn;
-        double qOut = ct * massRate * t;
-        double dq = qIn - qOut + q1 * r1 * volume + q2 * r2 * volume;
-
-        cCH4 += dcCH4 * seconds;
-        cC3H4 += dcC3H4 * seconds;
-        cO2 += dcO2 * seconds;
-        cC += dcC * seconds;
-        cCO2 += dcCO2 * seconds;
-        cCO += dcCO * seconds;
-        cH2O += dcH2O * seconds;
-        cH2 += dcH2 * seconds;
-
-        q += dq * seconds;
+        getKernel().step(state, seconds, cCH4In, cC3H4In, cO2In, tIn, state);
+        time += seconds;
+    }
+
+    /**
+     * Tick fed by another reactor, see {@link ReactorKernel#step(double[], double, double[], double[])}
+     * @param feed Inlet concentrations of all species by {@link ReactorKernel} constants, inlet temperature at {@link ReactorKernel#Q}
+     */
+    public void tick(double seconds, double[] feed) {
+        getKernel().step(state, seconds, feed, state);
+        time += seconds;
+    }
 
+    /**
+     * @return Outlet of the reactor as a feed for {@link #tick(double, double[])}: the state with the temperature at {@link ReactorKernel#Q}
+     */
+    public double[] outlet(double[] out) {
+        System.arraycopy(state, 0, out, 0, ReactorKernel.SIZE);
+        out[ReactorKernel.Q] = getTemperature();
+        return out;
+    }
+
+    /**
+     * Runs {@code steps} ticks, passing the initial state and the state after every tick to {@code sink}.
+     * If a monitor is given the run stops once it reports steady state; the flat rest of the run is then
+     * represented by one more sample of the last state at the time the full run would have ended.
+     * @param cCH4In CH4 inlet concentration by tick index
+     * @return Number of ticks made
+     */
+    public int run(double seconds, int steps, IntToDoubleFunction cCH4In, double cC3H4In, double cO2In, double tIn, TrajectorySink sink, SteadyStateMonitor monitor) {
+        return run(seconds, steps, cCH4In, cC3H4In, cO2In, tIn, sink, monitor, null);
+    }
+
+    /**
+     * Same as {@link #run(double, int, IntToDoubleFunction, double, double, double, TrajectorySink, SteadyStateMonitor)},
+     * with every tick made by {@link #advance} with {@code integrator} instead, or by {@link #tick} if it is null
+     */
+    public int run(double seconds, int steps, IntToDoubleFunction cCH4In, double cC3H4In, double cO2In, double tIn, TrajectorySink sink, SteadyStateMonitor monitor, ReactorIntegrator integrator) {
+        double[] previous = monitor != null ? ReactorKernel.newState() : null;
+        sink.begin(getKernel());
+        sink.accept(time, state);
+        int i = 0;
+        while (i < steps) {
+            if (previous != null) {
+                System.arraycopy(state, 0, previous, 0, previous.length);
+            }
+            if (integrator != null) {
+                advance(seconds, cCH4In.applyAsDouble(i), cC3H4In, cO2In, tIn, integrator);
+            }
+            else {
+                tick(seconds, cCH4In.applyAsDouble(i), cC3H4In, cO2In, tIn);
+            }
+            i++;
+            //The monitor sees a tick before the sink does, so a sink can record its progress along with the state
+            boolean steady = monitor != null && monitor.update(previous, state, seconds, getKernel().getHeatCapacity());
+            sink.accept(time, state);
+            if (steady) {
+                if (i < steps) {
+                    sink.accept(time + (steps - i) * seconds, state);
+                }
+                break;
+            }
+        }
+        sink.end();
+        return i;
+    }
+
+    public int run(double seconds, int steps, double cCH4In, double cC3H4In, double cO2In, double tIn, TrajectorySink sink, SteadyStateMonitor monitor) {
+        return run(seconds, steps, i -> cCH4In, cC3H4In, cO2In, tIn, sink, monitor);
+    }
+
+    public void advance(double seconds, double cCH4In, double cC3H4In, double cO2In, double tIn, ReactorIntegrator integrator) {
+        integrator.advance(getKernel(), state, seconds, cCH4In, cC3H4In, cO2In, tIn);
         time += seconds;
     }
 
+    /**
+     * @return Kernel with coefficients precomputed from current parameters, rebuilt only after a parameter changes
+     */
+    public ReactorKernel getKernel() {
+        if (kernel == null) {
+            kernel = new ReactorKernel(r, a1, a2, a3, e1, e2, e3, q1, q2, density, ct, volumeRate, volume, getRateTable());
+        }
+        return kernel;
+    }
+
+    /**
+     * @return Table of the rate constants if rate-table mode is enabled, null otherwise.
+     * The table is rebuilt only after kinetic parameters or table settings change
+     */
+    public ArrheniusTable getRateTable() {
+        if (!rateTableEnabled) {
+            return null;
+        }
+        if (rateTable == null) {
+            rateTable = new ArrheniusTable(new double[] {a1, a2, a3}, new double[] {e1 / r, e2 / r, e3 / r}, rateTableLowerT, rateTableUpperT, rateTableError);
+        }
+        return rateTable;
+    }
+
+    private void invalidateRates() {
+        rateTable = null;
+        kernel = null;
+    }
+
+    /**
+     * @return Live state vector of the reactor, indexed by {@link ReactorKernel} constants
+     */
+    public double[] getState() {
+        return state;
+    }
+
+    /**
+     * @return Binary snapshot of the state, the time and all parameters, see {@link #restore}
+     */
+    public byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + SNAPSHOT_VALUES * Double.BYTES);
+        try {
+            writeSnapshot(new DataOutputStream(bytes));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sets the state, the time and all parameters from a snapshot made by {@link #snapshot}
+     * @throws IllegalArgumentException If the data is not a snapshot
+     */
+    public void restore(byte[] snapshot) {
+        try {
+            readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)));
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Invalid reactor snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeBoolean(rateTableEnabled);
+        double[] values = {
+                r, a1, a2, a3, e1, e2, e3, q1, q2, density, ct, volumeRate,
+                rateTableLowerT, rateTableUpperT, rateTableError,
+                tIn, volume, time,
+                mCH4, mC3H4, mO2, mC, mCO2, mCO, mH2O, mH2
+        };
+        for (double v : values) {
+            out.writeDouble(v);
+        }
+        for (double v : state) {
+            out.writeDouble(v);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeSnapshot}; the reactor is left unchanged if reading fails
+     */
+    public void readSnapshot(DataInput in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a reactor snapshot");
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION) throw new IOException("Unsupported reactor snapshot version " + version);
+        boolean tableEnabled = in.readBoolean();
+        double[] v = new double[SNAPSHOT_VALUES];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = in.readDouble();
+        }
+
+        int i = 0;
+        r = v[i++];
+        a1 = v[i++];
+        a2 = v[i++];
+        a3 = v[i++];
+        e1 = v[i++];
+        e2 = v[i++];
+        e3 = v[i++];
+        q1 = v[i++];
+        q2 = v[i++];
+        density = v[i++];
+        ct = v[i++];
+        volumeRate = v[i++];
+        rateTableEnabled = tableEnabled;
+        rateTableLowerT = v[i++];
+        rateTableUpperT = v[i++];
+        rateTableError = v[i++];
+        tIn = v[i++];
+        volume = v[i++];
+        time = v[i++];
+        mCH4 = v[i++];
+        mC3H4 = v[i++];
+        mO2 = v[i++];
+        mC = v[i++];
+        mCO2 = v[i++];
+        mCO = v[i++];
+        mH2O = v[i++];
+        mH2 = v[i++];
+        System.arraycopy(v, i, state, 0, state.length);
+        invalidateRates();
+    }
+
+    public double getTemperature() {
+        return getKernel().temperature(state);
+    }
+
     public double concentrationInMolesPerCubicMeter(double c, double molarMass) {
         return c * density / molarMass;
     }
@@ -111,6 +274,7 @@ public class CarbonReactor {
 
     public void setR(double r) {
         this.r = r;
+        invalidateRates();
     }
 
     public double getA1() {
@@ -119,6 +283,7 @@ public class CarbonReactor {
 
     public void setA1(double a1) {
         this.a1 = a1;
+        invalidateRates();
     }
 
     public double getA2() {
@@ -127,6 +292,7 @@ public class CarbonReactor {
 
     public void setA2(double a2) {
         this.a2 = a2;
+        invalidateRates();
     }
 
     public double getA3() {
@@ -135,6 +301,7 @@ public class CarbonReactor {
 
     public void setA3(double a3) {
         this.a3 = a3;
+        invalidateRates();
     }
 
     public double getE1() {
@@ -143,6 +310,7 @@ public class CarbonReactor {
 
     public void setE1(double e1) {
         this.e1 = e1;
+        invalidateRates();
     }
 
     public double getE2() {
@@ -151,6 +319,7 @@ public class CarbonReactor {
 
     public void setE2(double e2) {
         this.e2 = e2;
+        invalidateRates();
     }
 
     public double getE3() {
@@ -159,6 +328,7 @@ public class CarbonReactor {
 
     public void setE3(double e3) {
         this.e3 = e3;
+        invalidateRates();
     }
 
     public double getQ1() {
@@ -167,6 +337,7 @@ public class CarbonReactor {
 
     public void setQ1(double q1) {
         this.q1 = q1;
+        kernel = null;
     }
 
     public double getQ2() {
@@ -175,6 +346,7 @@ public class CarbonReactor {
 
     public void setQ2(double q2) {
         this.q2 = q2;
+        kernel = null;
     }
 
     public double getDensity() {
@@ -183,6 +355,7 @@ public class CarbonReactor {
 
     public void setDensity(double density) {
         this.density = density;
+        kernel = null;
     }
 
     public double getCt() {
@@ -191,6 +364,7 @@ public class CarbonReactor {
 
     public void setCt(double ct) {
         this.ct = ct;
+        kernel = null;
     }
 
     public double getVolumeRate() {
@@ -199,70 +373,71 @@ public class CarbonReactor {
 
     public void setVolumeRate(double volumeRate) {
         this.volumeRate = volumeRate;
+        kernel = null;
     }
 
     public double getcCH4() {
-        return cCH4;
+        return state[ReactorKernel.CH4];
     }
 
     public void setcCH4(double cCH4) {
-        this.cCH4 = cCH4;
+        state[ReactorKernel.CH4] = cCH4;
     }
 
     public double getcC3H4() {
-        return cC3H4;
+        return state[ReactorKernel.C3H4];
     }
 
     public void setcC3H4(double cC3H4) {
-        this.cC3H4 = cC3H4;
+        state[ReactorKernel.C3H4] = cC3H4;
     }
 
     public double getcO2() {
-        return cO2;
+        return state[ReactorKernel.O2];
     }
 
     public void setcO2(double cO2) {
-        this.cO2 = cO2;
+        state[ReactorKernel.O2] = cO2;
     }
 
     public double getcC() {
-        return cC;
+        return state[ReactorKernel.C];
     }
 
     public void setcC(double cC) {
-        this.cC = cC;
+        state[ReactorKernel.C] = cC;
     }
 
     public double getcCO2() {
-        return cCO2;
+        return state[ReactorKernel.CO2];
     }
 
     public void setcCO2(double cCO2) {
-        this.cCO2 = cCO2;
+        state[ReactorKernel.CO2] = cCO2;
     }
 
     public double getcCO() {
-        return cCO;
+        return state[ReactorKernel.CO];
     }
 
     public void setcCO(double cCO) {
-        this.cCO = cCO;
+        state[ReactorKernel.CO] = cCO;
     }
 
     public double getcH2O() {
-        return cH2O;
+        return state[ReactorKernel.H2O];
     }
 
     public void setcH2O(double cH2O) {
-        this.cH2O = cH2O;
+        state[ReactorKernel.H2O] = cH2O;
     }
 
     public double getcH2() {
-        return cH2;
+        return state[ReactorKernel.H2];
     }
 
     public void setcH2(double cH2) {
-        this.cH2 = cH2;
+        state[ReactorKernel.H2] = cH2;
     }
 
     public double gettIn() {
@@ -279,14 +454,15 @@ public class CarbonReactor {
 
     public void setVolume(double volume) {
         this.volume = volume;
+        kernel = null;
     }
 
     public double getQ() {
-        return q;
+        return state[ReactorKernel.Q];
     }
 
     public void setQ(double q) {
-        this.q = q;
+        state[ReactorKernel.Q] = q;
     }
 
     public double getTime() {
@@ -360,4 +536,40 @@ public class CarbonReactor {
     public void setmH2(double mH2) {
         this.mH2 = mH2;
     }
+
+    public boolean isRateTableEnabled() {
+        return rateTableEnabled;
+    }
+
+    public void setRateTableEnabled(boolean rateTableEnabled) {
+        this.rateTableEnabled = rateTableEnabled;
+        invalidateRates();
+    }
+
+    public double getRateTableLowerT() {
+        return rateTableLowerT;
+    }
+
+    public void setRateTableLowerT(double rateTableLowerT) {
+        this.rateTableLowerT = rateTableLowerT;
+        invalidateRates();
+    }
+
+    public double getRateTableUpperT() {
+        return rateTableUpperT;
+    }
+
+    public void setRateTableUpperT(double rateTableUpperT) {
+        this.rateTableUpperT = rateTableUpperT;
+        invalidateRates();
+    }
+
+    public double getRateTableError() {
+        return rateTableError;
+    }
+
+    public void setRateTableError(double rateTableError) {
+        this.rateTableError = rateTableError;
+        invalidateRates();
+    }
 }
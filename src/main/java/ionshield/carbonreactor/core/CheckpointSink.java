@@ -0,0 +1,169 @@
+package ionshield.carbonreactor.core;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Trajectory sink that periodically writes a checkpoint of the reactor being run: its snapshot (see {@link CarbonReactor#snapshot})
+ * and the number of ticks made so far, counted from the start of the whole run. A checkpoint is written every
+ * {@code interval} ticks and after the last one; it replaces the previous one atomically, so a crash leaves the last complete checkpoint.
+ * A checkpoint also records a key of the run inputs it belongs to, and is only restored into a run with the same key,
+ * and the progress of the {@link SteadyStateMonitor} of the run, so a resumed run settles at the same tick; a checkpoint
+ * of a settled run is marked as such.
+ * A run is resumed by {@link #restore} and running the remaining ticks, see {@link Scenario#run(CarbonReactor, TrajectorySink, Path, int)}.
+ */
+public class CheckpointSink implements TrajectorySink {
+    private static final int MAGIC = 0x4352434B;
+    private static final int VERSION = 3;
+
+    private final CarbonReactor reactor;
+    private final Path path;
+    private final int interval;
+    private final long startTick;
+    private final String key;
+    private final SteadyStateMonitor monitor;
+
+    private long tick;
+    private long lastCheckpoint;
+    private int checkpoints = 0;
+
+    public CheckpointSink(CarbonReactor reactor, Path path, int interval) {
+        this(reactor, path, interval, 0, "", null);
+    }
+
+    /**
+     * @param startTick Ticks made before the run this sink is attached to, non-zero for resumed runs
+     * @param key Inputs of the run, see {@link #restore(Path, CarbonReactor, String, SteadyStateMonitor)}
+     * @param monitor Monitor of the run, null if it has none
+     */
+    public CheckpointSink(CarbonReactor reactor, Path path, int interval, long startTick, String key, SteadyStateMonitor monitor) {
+        if (interval < 1) throw new IllegalArgumentException("Checkpoint interval must be positive");
+        if (key == null) throw new IllegalArgumentException("Key must not be null");
+        this.reactor = reactor;
+        this.path = path;
+        this.interval = interval;
+        this.startTick = startTick;
+        this.key = key;
+        this.monitor = monitor;
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        tick = startTick - 1;
+        lastCheckpoint = startTick;
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        //The extra sample of a settled run lies past the reactor time and is not a tick
+        if (time != reactor.getTime()) {
+            return;
+        }
+        tick++;
+        if (tick - lastCheckpoint >= interval) {
+            write();
+        }
+    }
+
+    @Override
+    public void end() {
+        if (tick > lastCheckpoint) {
+            write();
+        }
+    }
+
+    private void write() {
+        try {
+            write(path, reactor, tick, key, monitor);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lastCheckpoint = tick;
+        checkpoints++;
+    }
+
+    /**
+     * Writes a checkpoint through a temporary file that then replaces {@code path}
+     * @param monitor Monitor of the run, null if it has none
+     */
+    public static void write(Path path, CarbonReactor reactor, long ticks, String key, SteadyStateMonitor monitor) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeLong(ticks);
+            out.writeBoolean(monitor != null && monitor.isSteady());
+            out.writeInt(monitor != null ? monitor.getCount() : 0);
+            out.writeDouble(monitor != null ? monitor.getLastNorm() : Double.NaN);
+            reactor.writeSnapshot(out);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores a reactor and the monitor of its run from a checkpoint; both are left unchanged if the checkpoint cannot be used
+     * @param key Inputs of the run to resume, which must equal those the checkpoint was written with
+     * @param monitor Monitor of the resumed run, null if it has none
+     * @throws IOException If the file is not a checkpoint or belongs to a run with other inputs
+     */
+    public static Restored restore(Path path, CarbonReactor reactor, String key, SteadyStateMonitor monitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a checkpoint: " + path);
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version);
+            String written = in.readUTF();
+            if (!written.equals(key)) {
+                throw new IOException("Checkpoint " + path + " belongs to another run (" + written + "), not to " + key);
+            }
+            long ticks = in.readLong();
+            boolean settled = in.readBoolean();
+            int count = in.readInt();
+            double lastNorm = in.readDouble();
+            reactor.readSnapshot(in);
+            if (monitor != null) {
+                monitor.restore(count, lastNorm);
+            }
+            return new Restored(ticks, settled);
+        }
+    }
+
+    public static class Restored {
+        /**Number of ticks made up to the checkpoint*/
+        public final long ticks;
+        /**True if the run had settled, so it ended at the checkpoint*/
+        public final boolean settled;
+
+        public Restored(long ticks, boolean settled) {
+            this.ticks = ticks;
+            this.settled = settled;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**@return Number of checkpoints written by this sink*/
+    public int getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**@return Ticks made up to the last checkpoint written, counted from the start of the whole run*/
+    public long getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+}
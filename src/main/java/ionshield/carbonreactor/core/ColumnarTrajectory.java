@@ -0,0 +1,93 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.ArrayInterpolator;
+import ionshield.carbonreactor.math.Interpolator;
+
+import java.util.Arrays;
+
+/**
+ * In-memory trajectory stored as one primitive array per column. Only the columns given to the constructor are kept:
+ * {@link ReactorKernel} state constants and {@link #TEMPERATURE}.
+ */
+public class ColumnarTrajectory implements TrajectorySink {
+    public static final int TEMPERATURE = ReactorKernel.SIZE;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int[] columns;
+    private final int[] slots = new int[ReactorKernel.SIZE + 1];
+    private double heatCapacity = Double.NaN;
+
+    private double[] time = new double[INITIAL_CAPACITY];
+    private final double[][] values;
+    private int size = 0;
+
+    /**
+     * @param columns Columns to keep, all state components and the temperature if none are given
+     */
+    public ColumnarTrajectory(int... columns) {
+        if (columns.length == 0) {
+            columns = new int[ReactorKernel.SIZE + 1];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+        }
+        this.columns = columns.clone();
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] < 0 || columns[i] >= slots.length) throw new IllegalArgumentException("Unknown column " + columns[i]);
+            slots[columns[i]] = i;
+        }
+        values = new double[columns.length][INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        heatCapacity = kernel.getHeatCapacity();
+    }
+
+    @Override
+    public void accept(double t, double[] state) {
+        if (size == time.length) {
+            int capacity = size + (size >> 1);
+            time = Arrays.copyOf(time, capacity);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Arrays.copyOf(values[i], capacity);
+            }
+        }
+        time[size] = t;
+        for (int i = 0; i < columns.length; i++) {
+            values[i][size] = columns[i] == TEMPERATURE ? state[ReactorKernel.Q] / heatCapacity : state[columns[i]];
+        }
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getTime(int i) {
+        return time[i];
+    }
+
+    public double get(int column, int i) {
+        return values[slot(column)][i];
+    }
+
+    /**
+     * @return Linear interpolator of the column over time, sharing the arrays with this trajectory.
+     * It covers the samples accepted so far and is not affected by later ones until the trajectory is cleared
+     */
+    public Interpolator interpolator(int column) {
+        return new ArrayInterpolator(time, values[slot(column)], size);
+    }
+
+    private int slot(int column) {
+        int slot = column >= 0 && column < slots.length ? slots[column] : -1;
+        if (slot < 0) throw new IllegalArgumentException("Column " + column + " is not kept");
+        return slot;
+    }
+}
@@ -0,0 +1,340 @@
+package ionshield.carbonreactor.core;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Trajectory sink that keeps a run compressed in memory with the Gorilla time-series encoding.
+ * Every sample stores the time and the full {@link ReactorKernel} state; the temperature is restored from the heat capacity.
+ * Times are encoded by the delta of delta of their bit patterns, which is zero or tiny for uniform steps,
+ * and every state component by the XOR with its linear extrapolation from the two previous values, which has long runs
+ * of zero bits for a smooth run.
+ * The encoding is lossless. Samples are read back sequentially by a {@link Decoder} or replayed into another sink.
+ */
+public class CompressedTrajectory implements TrajectorySink {
+    private static final int MAGIC = 0x43525443;
+    private static final int VERSION = 1;
+    private static final int VALUES = ReactorKernel.SIZE;
+
+    private long[] words = new long[1024];
+    private long bits = 0;
+    private long count = 0;
+    private double heatCapacity = Double.NaN;
+    private boolean readOnly = false;
+
+    private long previousTime;
+    private long previousDelta;
+    private final double[] previous = new double[VALUES];
+    private final double[] older = new double[VALUES];
+    private final int[] leading = new int[VALUES];
+    private final int[] trailing = new int[VALUES];
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        heatCapacity = kernel.getHeatCapacity();
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        if (readOnly) throw new IllegalStateException("Loaded trajectories can not be appended to");
+        long t = Double.doubleToRawLongBits(time);
+        if (count == 0) {
+            write(t, 64);
+            for (int i = 0; i < VALUES; i++) {
+                previous[i] = state[i];
+                older[i] = state[i];
+                leading[i] = -1;
+                write(Double.doubleToRawLongBits(state[i]), 64);
+            }
+            previousTime = t;
+            previousDelta = 0;
+            count++;
+            return;
+        }
+
+        long delta = t - previousTime;
+        long dod = delta - previousDelta;
+        if (dod == 0) {
+            write(0, 1);
+        }
+        else if (dod >= -63 && dod <= 64) {
+            write(0b10, 2);
+            write(dod, 7);
+        }
+        else if (dod >= -255 && dod <= 256) {
+            write(0b110, 3);
+            write(dod, 9);
+        }
+        else if (dod >= -2047 && dod <= 2048) {
+            write(0b1110, 4);
+            write(dod, 12);
+        }
+        else {
+            write(0b1111, 4);
+            write(dod, 64);
+        }
+        previousTime = t;
+        previousDelta = delta;
+
+        for (int i = 0; i < VALUES; i++) {
+            long x = Double.doubleToRawLongBits(state[i]) ^ predict(previous[i], older[i]);
+            older[i] = previous[i];
+            previous[i] = state[i];
+            if (x == 0) {
+                write(0, 1);
+                continue;
+            }
+            int lead = Math.min(31, Long.numberOfLeadingZeros(x));
+            int trail = Long.numberOfTrailingZeros(x);
+            if (leading[i] >= 0 && lead >= leading[i] && trail >= trailing[i]) {
+                //Meaningful bits fit in the previous window
+                write(0b10, 2);
+                write(x >>> trailing[i], 64 - leading[i] - trailing[i]);
+            }
+            else {
+                int significant = 64 - lead - trail;
+                write(0b11, 2);
+                write(lead, 5);
+                write(significant, 6); //64 wraps to 0
+                write(x >>> trail, significant);
+                leading[i] = lead;
+                trailing[i] = trail;
+            }
+        }
+        count++;
+    }
+
+    /**
+     * @return Bits of the linear extrapolation of the last two values, which shares more leading bits with the next value
+     * of a smooth run than the last value does
+     */
+    private static long predict(double previous, double older) {
+        return Double.doubleToLongBits(previous + (previous - older));
+    }
+
+    /**
+     * Appends the lowest {@code n} bits of a value, 1 <= n <= 64
+     */
+    private void write(long value, int n) {
+        if (bits + n > (long) words.length * 64) {
+            words = Arrays.copyOf(words, Math.max(words.length + words.length / 2, (int) ((bits + n) / 64) + 1));
+        }
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int index = (int) (bits >>> 6);
+        int free = 64 - (int) (bits & 63);
+        if (n <= free) {
+            words[index] |= value << (free - n);
+        }
+        else {
+            words[index] |= value >>> (n - free);
+            words[index + 1] |= value << (64 - n + free);
+        }
+        bits += n;
+    }
+
+    /**
+     * Decodes all samples into a sink
+     * @param kernel Kernel passed to {@link TrajectorySink#begin}, the one of the recorded run
+     */
+    public void replay(TrajectorySink sink, ReactorKernel kernel) {
+        sink.begin(kernel);
+        Decoder decoder = decoder();
+        while (decoder.next()) {
+            sink.accept(decoder.getTime(), decoder.getState());
+        }
+        sink.end();
+    }
+
+    public Decoder decoder() {
+        return new Decoder();
+    }
+
+    /**
+     * Sequential reader of the samples; reads the samples present when it was created
+     */
+    public class Decoder {
+        private final long total = count;
+        private long index = 0;
+        private long position = 0;
+
+        private long time;
+        private long delta;
+        private final double[] older = new double[VALUES];
+        private final int[] leading = new int[VALUES];
+        private final int[] trailing = new int[VALUES];
+        private final double[] state = ReactorKernel.newState();
+
+        /**
+         * Moves to the next sample
+         * @return False if there are no more samples
+         */
+        public boolean next() {
+            if (index >= total) {
+                return false;
+            }
+            if (index == 0) {
+                time = read(64);
+                for (int i = 0; i < VALUES; i++) {
+                    state[i] = Double.longBitsToDouble(read(64));
+                    older[i] = state[i];
+                }
+                index++;
+                return true;
+            }
+
+            long dod;
+            if (read(1) == 0) {
+                dod = 0;
+            }
+            else if (read(1) == 0) {
+                dod = signed(read(7), 7);
+            }
+            else if (read(1) == 0) {
+                dod = signed(read(9), 9);
+            }
+            else if (read(1) == 0) {
+                dod = signed(read(12), 12);
+            }
+            else {
+                dod = read(64);
+            }
+            delta += dod;
+            time += delta;
+
+            for (int i = 0; i < VALUES; i++) {
+                long v = predict(state[i], older[i]);
+                older[i] = state[i];
+                if (read(1) == 0) {
+                    state[i] = Double.longBitsToDouble(v);
+                    continue;
+                }
+                if (read(1) == 1) {
+                    leading[i] = (int) read(5);
+                    int significant = (int) read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing[i] = 64 - leading[i] - significant;
+                }
+                v ^= read(64 - leading[i] - trailing[i]) << trailing[i];
+                state[i] = Double.longBitsToDouble(v);
+            }
+            index++;
+            return true;
+        }
+
+        private long read(int n) {
+            int word = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            int free = 64 - offset;
+            long res;
+            if (n <= free) {
+                res = (words[word] << offset) >>> (64 - n);
+            }
+            else {
+                res = ((words[word] << offset) >>> (64 - n)) | (words[word + 1] >>> (64 - n + free));
+            }
+            position += n;
+            return res;
+        }
+
+        private long signed(long value, int n) {
+            //Values are in [-2^(n-1) + 1, 2^(n-1)], so the all-ones pattern of the top half is positive
+            return value > (1L << (n - 1)) ? value - (1L << n) : value;
+        }
+
+        public double getTime() {
+            return Double.longBitsToDouble(time);
+        }
+
+        /**
+         * @param i {@link ReactorKernel} state constant
+         */
+        public double get(int i) {
+            return state[i];
+        }
+
+        public double getTemperature() {
+            return state[ReactorKernel.Q] / heatCapacity;
+        }
+
+        /**
+         * @return Live state of the current sample, overwritten by {@link #next}
+         */
+        public double[] getState() {
+            return state;
+        }
+    }
+
+    /**
+     * Writes the compressed samples, the heat capacity and the encoding state needed to read them
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(count);
+        data.writeDouble(heatCapacity);
+        data.writeLong(bits);
+        for (int i = 0, n = (int) ((bits + 63) / 64); i < n; i++) {
+            data.writeLong(words[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads samples written by {@link #write}. The result can be decoded but not appended to
+     */
+    public static CompressedTrajectory read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) throw new IOException("Not a compressed trajectory");
+        int version = data.readInt();
+        if (version != VERSION) throw new IOException("Unsupported compressed trajectory version " + version);
+        CompressedTrajectory res = new CompressedTrajectory();
+        res.count = data.readLong();
+        res.heatCapacity = data.readDouble();
+        res.bits = data.readLong();
+        if (res.count < 0 || res.bits < 0 || res.bits > (long) Integer.MAX_VALUE * 64) throw new IOException("Corrupted compressed trajectory");
+        res.words = new long[(int) ((res.bits + 63) / 64) + 1];
+        for (int i = 0; i < res.words.length - 1; i++) {
+            res.words[i] = data.readLong();
+        }
+        res.readOnly = true;
+        return res;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public double getHeatCapacity() {
+        return heatCapacity;
+    }
+
+    /**@return Size of the encoded samples in bytes*/
+    public long getCompressedBytes() {
+        return (bits + 7) / 8;
+    }
+
+    /**@return Size of the samples as plain doubles (time and state) in bytes*/
+    public long getRawBytes() {
+        return count * (VALUES + 1) * Double.BYTES;
+    }
+
+    /**@return Raw size divided by compressed size*/
+    public double getCompressionRatio() {
+        return bits == 0 ? 1 : getRawBytes() / (double) getCompressedBytes();
+    }
+
+    /**
+     * Drops all samples
+     */
+    public void clear() {
+        if (readOnly) throw new IllegalStateException("Loaded trajectories can not be cleared");
+        Arrays.fill(words, 0, (int) Math.min(words.length, (bits + 63) / 64), 0);
+        bits = 0;
+        count = 0;
+    }
+}
@@ -0,0 +1,18 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Trajectory sink whose accumulated samples can be copied, so a run can be resumed from a snapshot with the sink
+ * as it was at that point, see {@link RunCache}.
+ * A copy may get {@link #begin} and {@link #end} again when it is resumed.
+ */
+public interface CopyableSink extends TrajectorySink {
+    /**
+     * @return Independent sink that has seen the same samples as this one
+     */
+    CopyableSink copy();
+
+    /**
+     * @return Approximate heap size of the sink in bytes
+     */
+    long getMemoryBytes();
+}
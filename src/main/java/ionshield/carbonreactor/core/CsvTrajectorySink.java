@@ -0,0 +1,67 @@
+package ionshield.carbonreactor.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes samples as comma-separated lines of time, state components and temperature, one line per sample.
+ * The writer is flushed at the end of a run and closed by {@link #close}.
+ */
+public class CsvTrajectorySink implements TrajectorySink, Closeable {
+    private static final String HEADER = "t,cCH4,cC3H4,cO2,cC,cCO2,cCO,cH2O,cH2,q,T";
+
+    private final Writer writer;
+    private final StringBuilder line = new StringBuilder();
+    private double heatCapacity = Double.NaN;
+
+    public CsvTrajectorySink(Writer writer) {
+        this.writer = writer;
+    }
+
+    public CsvTrajectorySink(Path path) throws IOException {
+        this(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        heatCapacity = kernel.getHeatCapacity();
+        write(HEADER);
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        line.setLength(0);
+        line.append(time);
+        for (int i = 0; i < ReactorKernel.SIZE; i++) {
+            line.append(',').append(state[i]);
+        }
+        line.append(',').append(state[ReactorKernel.Q] / heatCapacity);
+        write(line);
+    }
+
+    private void write(CharSequence s) {
+        try {
+            writer.append(s).append('\n');
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void end() {
+        try {
+            writer.flush();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,58 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Passes on the first sample and every {@code factor}-th one after it.
+ * The last sample of the run is always passed on, so the decimated trajectory spans the whole run.
+ */
+public class DecimatingSink implements TrajectorySink {
+    private final TrajectorySink target;
+    private final int factor;
+
+    private final double[] pending = ReactorKernel.newState();
+    private double pendingTime;
+    private boolean hasPending;
+    private long count;
+
+    public DecimatingSink(TrajectorySink target, int factor) {
+        if (factor < 1) throw new IllegalArgumentException("Factor must be positive");
+        this.target = target;
+        this.factor = factor;
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        count = 0;
+        hasPending = false;
+        target.begin(kernel);
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        if (count++ % factor == 0) {
+            target.accept(time, state);
+            hasPending = false;
+        }
+        else {
+            System.arraycopy(state, 0, pending, 0, pending.length);
+            pendingTime = time;
+            hasPending = true;
+        }
+    }
+
+    @Override
+    public void end() {
+        if (hasPending) {
+            target.accept(pendingTime, pending);
+            hasPending = false;
+        }
+        target.end();
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public TrajectorySink getTarget() {
+        return target;
+    }
+}
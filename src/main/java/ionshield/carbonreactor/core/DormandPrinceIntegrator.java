@@ -0,0 +1,176 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Embedded Runge-Kutta 5(4) pair of Dormand and Prince with local error control.
+ * Scratch arrays are allocated once per instance, so an instance must not be shared between threads.
+ */
+public class DormandPrinceIntegrator extends AbstractIntegrator {
+    private static final double C2 = 1.0 / 5, C3 = 3.0 / 10, C4 = 4.0 / 5, C5 = 8.0 / 9;
+
+    private static final double A21 = 1.0 / 5;
+    private static final double A31 = 3.0 / 40, A32 = 9.0 / 40;
+    private static final double A41 = 44.0 / 45, A42 = -56.0 / 15, A43 = 32.0 / 9;
+    private static final double A51 = 19372.0 / 6561, A52 = -25360.0 / 2187, A53 = 64448.0 / 6561, A54 = -212.0 / 729;
+    private static final double A61 = 9017.0 / 3168, A62 = -355.0 / 33, A63 = 46732.0 / 5247, A64 = 49.0 / 176, A65 = -5103.0 / 18656;
+    private static final double A71 = 35.0 / 384, A73 = 500.0 / 1113, A74 = 125.0 / 192, A75 = -2187.0 / 6784, A76 = 11.0 / 84;
+
+    private static final double E1 = 71.0 / 57600, E3 = -71.0 / 16695, E4 = 71.0 / 1920, E5 = -17253.0 / 339200, E6 = 22.0 / 525, E7 = -1.0 / 40;
+
+    private static final double SAFETY = 0.9;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 10;
+
+    private double relativeTolerance = 1e-6;
+    private double absoluteTolerance = 1e-9;
+    private double minStep = 1e-12;
+    private double maxStep = Double.POSITIVE_INFINITY;
+    private double initialStep = 0;
+
+    private double lastStep = 0;
+
+    private final double[] k1 = new double[ReactorKernel.SIZE];
+    private final double[] k2 = new double[ReactorKernel.SIZE];
+    private final double[] k3 = new double[ReactorKernel.SIZE];
+    private final double[] k4 = new double[ReactorKernel.SIZE];
+    private final double[] k5 = new double[ReactorKernel.SIZE];
+    private final double[] k6 = new double[ReactorKernel.SIZE];
+    private final double[] k7 = new double[ReactorKernel.SIZE];
+    private final double[] tmp = new double[ReactorKernel.SIZE];
+    private final double[] next = new double[ReactorKernel.SIZE];
+
+    public DormandPrinceIntegrator() {
+    }
+
+    public DormandPrinceIntegrator(double relativeTolerance, double absoluteTolerance) {
+        setRelativeTolerance(relativeTolerance);
+        setAbsoluteTolerance(absoluteTolerance);
+    }
+
+    @Override
+    public void advance(ReactorKernel kernel, double[] state, double duration, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        if (duration <= 0) return;
+        int n = ReactorKernel.SIZE;
+
+        kernel.derivatives(state, cCH4In, cC3H4In, cO2In, tIn, k1);
+        countEvaluations(1);
+
+        double h = lastStep > 0 ? lastStep : (initialStep > 0 ? initialStep : estimateInitialStep(state));
+        double elapsed = 0;
+        boolean rejectedBefore = false;
+
+        while (elapsed < duration) {
+            double remaining = duration - elapsed;
+            h = Math.min(Math.min(h, maxStep), remaining);
+            boolean last = h >= remaining;
+
+            for (int i = 0; i < n; i++) tmp[i] = state[i] + h * (A21 * k1[i]);
+            kernel.derivatives(tmp, cCH4In, cC3H4In, cO2In, tIn, k2);
+            for (int i = 0; i < n; i++) tmp[i] = state[i] + h * (A31 * k1[i] + A32 * k2[i]);
+            kernel.derivatives(tmp, cCH4In, cC3H4In, cO2In, tIn, k3);
+            for (int i = 0; i < n; i++) tmp[i] = state[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+            kernel.derivatives(tmp, cCH4In, cC3H4In, cO2In, tIn, k4);
+            for (int i = 0; i < n; i++) tmp[i] = state[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+            kernel.derivatives(tmp, cCH4In, cC3H4In, cO2In, tIn, k5);
+            for (int i = 0; i < n; i++) tmp[i] = state[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+            kernel.derivatives(tmp, cCH4In, cC3H4In, cO2In, tIn, k6);
+            for (int i = 0; i < n; i++) next[i] = state[i] + h * (A71 * k1[i] + A73 * k3[i] + A74 * k4[i] + A75 * k5[i] + A76 * k6[i]);
+            kernel.derivatives(next, cCH4In, cC3H4In, cO2In, tIn, k7);
+            countEvaluations(6);
+
+            double err = 0;
+            for (int i = 0; i < n; i++) {
+                double sc = absoluteTolerance + relativeTolerance * Math.max(Math.abs(state[i]), Math.abs(next[i]));
+                double e = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]) / sc;
+                err += e * e;
+            }
+            err = Math.sqrt(err / n);
+
+            if (err <= 1 && !Double.isNaN(err)) {
+                System.arraycopy(next, 0, state, 0, n);
+                System.arraycopy(k7, 0, k1, 0, n);
+                elapsed = last ? duration : elapsed + h;
+                countAccepted();
+
+                double factor = err == 0 ? MAX_FACTOR : Math.min(MAX_FACTOR, Math.max(MIN_FACTOR, SAFETY * Math.pow(err, -0.2)));
+                if (rejectedBefore) factor = Math.min(factor, 1);
+                if (!last) lastStep = h * factor;
+                h = h * factor;
+                rejectedBefore = false;
+            }
+            else {
+                countRejected();
+                double factor = Double.isNaN(err) ? MIN_FACTOR : Math.max(MIN_FACTOR, SAFETY * Math.pow(err, -0.2));
+                h = h * factor;
+                rejectedBefore = true;
+                if (h < minStep) {
+                    throw new IllegalStateException("Step size " + h + " fell below the minimum of " + minStep);
+                }
+            }
+        }
+    }
+
+    private double estimateInitialStep(double[] state) {
+        double d0 = 0;
+        double d1 = 0;
+        for (int i = 0; i < ReactorKernel.SIZE; i++) {
+            double sc = absoluteTolerance + relativeTolerance * Math.abs(state[i]);
+            d0 += (state[i] / sc) * (state[i] / sc);
+            d1 += (k1[i] / sc) * (k1[i] / sc);
+        }
+        d0 = Math.sqrt(d0 / ReactorKernel.SIZE);
+        d1 = Math.sqrt(d1 / ReactorKernel.SIZE);
+        if (d0 < 1e-5 || d1 < 1e-5) {
+            return 1e-6;
+        }
+        return 0.01 * d0 / d1;
+    }
+
+    /**
+     * Forgets the step size carried over from the previous call, so the next call estimates a fresh one
+     */
+    public void reset() {
+        lastStep = 0;
+    }
+
+    public double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    public void setRelativeTolerance(double relativeTolerance) {
+        if (relativeTolerance <= 0) throw new IllegalArgumentException("Relative tolerance must be positive");
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+
+    public void setAbsoluteTolerance(double absoluteTolerance) {
+        if (absoluteTolerance < 0) throw new IllegalArgumentException("Absolute tolerance must be non-negative");
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    public double getMinStep() {
+        return minStep;
+    }
+
+    public void setMinStep(double minStep) {
+        this.minStep = minStep;
+    }
+
+    public double getMaxStep() {
+        return maxStep;
+    }
+
+    public void setMaxStep(double maxStep) {
+        this.maxStep = maxStep;
+    }
+
+    public double getInitialStep() {
+        return initialStep;
+    }
+
+    public void setInitialStep(double initialStep) {
+        this.initialStep = initialStep;
+    }
+}
@@ -0,0 +1,125 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.Dual;
+
+/**
+ * Counterpart of {@link ReactorKernel} over {@link Dual} numbers, so that derivatives of a run by the volume, the inlet and
+ * anything else seeded as a variable are carried through every operation exactly.
+ * Kinetic and physical constants are plain numbers; the rate table is never used, the rates are always evaluated exactly.
+ * State layout is the same as in {@link ReactorKernel}.
+ */
+public final class DualReactorKernel {
+    private final double a1;
+    private final double a2;
+    private final double a3;
+    private final double e1r;
+    private final double e2r;
+    private final double e3r;
+    private final double flowHeatCapacity;
+
+    private final Dual volume;
+    private final Dual invTs;
+    private final Dual heatCapacity;
+    private final Dual q1v;
+    private final Dual q2v;
+    private final Dual[] rates = newState();
+
+    public DualReactorKernel(double r, double a1, double a2, double a3, double e1, double e2, double e3, double q1, double q2, double density, double ct, double volumeRate, Dual volume) {
+        this.a1 = a1;
+        this.a2 = a2;
+        this.a3 = a3;
+        this.e1r = e1 / r;
+        this.e2r = e2 / r;
+        this.e3r = e3 / r;
+        this.flowHeatCapacity = ct * volumeRate * density;
+
+        this.volume = volume;
+        this.invTs = volume.div(volumeRate).reciprocal();
+        this.heatCapacity = volume.mul(ct).mul(density);
+        this.q1v = volume.mul(q1);
+        this.q2v = volume.mul(q2);
+    }
+
+    /**
+     * Takes the kinetic and physical parameters of {@code model}
+     */
+    public DualReactorKernel(CarbonReactor model, Dual volume) {
+        this(model.getR(), model.getA1(), model.getA2(), model.getA3(), model.getE1(), model.getE2(), model.getE3(), model.getQ1(), model.getQ2(), model.getDensity(), model.getCt(), model.getVolumeRate(), volume);
+    }
+
+    public static Dual[] newState() {
+        return new Dual[ReactorKernel.SIZE];
+    }
+
+    public void init(Dual[] state, Dual cCH4In, Dual cC3H4In, Dual cO2In, Dual t) {
+        Dual zero = Dual.constant(0);
+        state[ReactorKernel.CH4] = cCH4In;
+        state[ReactorKernel.C3H4] = cC3H4In;
+        state[ReactorKernel.O2] = cO2In;
+        state[ReactorKernel.C] = zero;
+        state[ReactorKernel.CO2] = zero;
+        state[ReactorKernel.CO] = zero;
+        state[ReactorKernel.H2O] = zero;
+        state[ReactorKernel.H2] = zero;
+        state[ReactorKernel.Q] = t.mul(heatCapacity);
+    }
+
+    public Dual temperature(Dual[] state) {
+        return state[ReactorKernel.Q].div(heatCapacity);
+    }
+
+    /**
+     * Writes time derivatives of {@code state} into {@code out}. {@code out} may be the same array as {@code state}.
+     */
+    public void derivatives(Dual[] state, Dual cCH4In, Dual cC3H4In, Dual cO2In, Dual tIn, Dual[] out) {
+        Dual cCH4 = state[ReactorKernel.CH4];
+        Dual cC3H4 = state[ReactorKernel.C3H4];
+        Dual cO2 = state[ReactorKernel.O2];
+        Dual t = state[ReactorKernel.Q].div(heatCapacity);
+        Dual invT = t.reciprocal();
+
+        Dual r1 = invT.mul(-e1r).exp().mul(a1).mul(cCH4).mul(cO2);
+        Dual r2 = invT.mul(-e2r).exp().mul(a2).mul(cC3H4).mul(cO2);
+        Dual r3 = invT.mul(-e3r).exp().mul(a3).mul(cC3H4);
+
+        Dual dcC = invTs.mul(state[ReactorKernel.C]).negate().add(r3.mul(3));
+        Dual dcCO2 = invTs.mul(state[ReactorKernel.CO2]).negate().add(r1);
+        Dual dcCO = invTs.mul(state[ReactorKernel.CO]).negate().add(r2.mul(6));
+        Dual dcH2O = invTs.mul(state[ReactorKernel.H2O]).negate().add(r1.mul(2)).add(r2.mul(4));
+        Dual dcH2 = invTs.mul(state[ReactorKernel.H2]).negate().add(r3.mul(2));
+
+        out[ReactorKernel.CH4] = invTs.mul(cCH4In.sub(cCH4)).sub(r1);
+        out[ReactorKernel.C3H4] = invTs.mul(cC3H4In.sub(cC3H4)).sub(r2.mul(2)).sub(r3);
+        out[ReactorKernel.O2] = invTs.mul(cO2In.sub(cO2)).sub(r1.mul(2)).sub(r2.mul(5));
+        out[ReactorKernel.C] = dcC;
+        out[ReactorKernel.CO2] = dcCO2;
+        out[ReactorKernel.CO] = dcCO;
+        out[ReactorKernel.H2O] = dcH2O;
+        out[ReactorKernel.H2] = dcH2;
+        out[ReactorKernel.Q] = tIn.sub(t).mul(flowHeatCapacity).add(q1v.mul(r1)).add(q2v.mul(r2));
+    }
+
+    /**
+     * Explicit Euler step of {@code seconds}, the same scheme as {@link ReactorKernel#step}.
+     * Writes the new state into {@code out}, which may be the same array as {@code state}.
+     */
+    public void step(Dual[] state, double seconds, Dual cCH4In, Dual cC3H4In, Dual cO2In, Dual tIn, Dual[] out) {
+        derivatives(state, cCH4In, cC3H4In, cO2In, tIn, rates);
+        for (int i = 0; i < ReactorKernel.SIZE; i++) {
+            out[i] = state[i].add(rates[i].mul(seconds));
+        }
+    }
+
+    public Dual getVolume() {
+        return volume;
+    }
+
+    public Dual getHeatCapacity() {
+        return heatCapacity;
+    }
+
+    /**@return Heat capacity of the volume flow, ct * volumeRate * density*/
+    public double getFlowHeatCapacity() {
+        return flowHeatCapacity;
+    }
+}
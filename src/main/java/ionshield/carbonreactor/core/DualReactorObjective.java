@@ -0,0 +1,188 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.Dual;
+import ionshield.carbonreactor.math.GridSweep;
+import ionshield.carbonreactor.math.TwiceDifferentiableFunction;
+
+/**
+ * Optimization objective over (volume, inlet temperature): the negated carbon concentration after an Euler run
+ * from the cold reactor, the same run as {@link CarbonReactor#tick} performs. The run is carried out in {@link Dual}
+ * numbers, so the value, the exact gradient of the discrete run and a Hessian-vector product come from a single pass.
+ * A value alone is computed in plain numbers.
+ * The run stops early once the values are steady by a {@link SteadyStateMonitor}.
+ */
+public class DualReactorObjective implements TwiceDifferentiableFunction {
+    private final CarbonReactor model;
+    private final double cCH4In;
+    private final double cC3H4In;
+    private final double cO2In;
+    private final double seconds;
+    private final int steps;
+
+    private double tolerance = 1e-8;
+    private int window = 100;
+    private int lastSteps;
+
+    public DualReactorObjective(CarbonReactor model, double cCH4In, double cC3H4In, double cO2In, double seconds, int steps) {
+        if (seconds <= 0) throw new IllegalArgumentException("Step must be positive");
+        this.model = model;
+        this.cCH4In = cCH4In;
+        this.cC3H4In = cC3H4In;
+        this.cO2In = cO2In;
+        this.seconds = seconds;
+        this.steps = steps;
+    }
+
+    public DualReactorObjective(double cCH4In, double cC3H4In, double cO2In, double seconds, int steps) {
+        this(new CarbonReactor(), cCH4In, cC3H4In, cO2In, seconds, steps);
+    }
+
+    @Override
+    public double evaluate(double volume, double tIn, double[] gradient) {
+        return evaluate(volume, tIn, gradient, 0, 0, null);
+    }
+
+    @Override
+    public double evaluate(double volume, double tIn, double[] gradient, double vx, double vy, double[] hessianVector) {
+        if (gradient == null && hessianVector == null) {
+            return evaluate(volume, tIn);
+        }
+        Dual v = Dual.variable(volume, 0, vx);
+        Dual t = Dual.variable(tIn, 1, vy);
+        Dual ch4 = Dual.constant(cCH4In);
+        Dual c3h4 = Dual.constant(cC3H4In);
+        Dual o2 = Dual.constant(cO2In);
+
+        DualReactorKernel kernel = new DualReactorKernel(model, v);
+        Dual[] state = DualReactorKernel.newState();
+        kernel.init(state, ch4, c3h4, o2, t);
+
+        SteadyStateMonitor monitor = new SteadyStateMonitor(tolerance, window);
+        double[] previous = ReactorKernel.newState();
+        double[] current = ReactorKernel.newState();
+        values(state, current);
+        lastSteps = 0;
+        while (lastSteps < steps) {
+            kernel.step(state, seconds, ch4, c3h4, o2, t, state);
+            lastSteps++;
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+            values(state, current);
+            if (monitor.update(previous, current, seconds, kernel.getHeatCapacity().getValue())) {
+                break;
+            }
+        }
+
+        Dual c = state[ReactorKernel.C];
+        if (gradient != null) {
+            gradient[0] = -c.getGradient(0);
+            gradient[1] = -c.getGradient(1);
+        }
+        if (hessianVector != null) {
+            hessianVector[0] = -c.getHessianTangent(0);
+            hessianVector[1] = -c.getHessianTangent(1);
+        }
+        return -c.getValue();
+    }
+
+    /**
+     * Value alone, run in plain numbers; equal to the value of a dual run up to rounding
+     */
+    private double evaluate(double volume, double tIn) {
+        ReactorKernel kernel = new ReactorKernel(model.getR(), model.getA1(), model.getA2(), model.getA3(), model.getE1(), model.getE2(), model.getE3(),
+                model.getQ1(), model.getQ2(), model.getDensity(), model.getCt(), model.getVolumeRate(), volume);
+        double[] previous = ReactorKernel.newState();
+        double[] current = ReactorKernel.newState();
+        kernel.init(current, cCH4In, cC3H4In, cO2In, tIn);
+
+        SteadyStateMonitor monitor = new SteadyStateMonitor(tolerance, window);
+        lastSteps = 0;
+        while (lastSteps < steps) {
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+            kernel.step(previous, seconds, cCH4In, cC3H4In, cO2In, tIn, current);
+            lastSteps++;
+            if (monitor.update(previous, current, seconds, kernel.getHeatCapacity())) {
+                break;
+            }
+        }
+        return -current[ReactorKernel.C];
+    }
+
+    /**
+     * @return Thread-safe batch form of the value for sweeps: each call runs its points together in a {@link ReactorBatch}.
+     * Every point makes all steps, so values agree with {@link #evaluate(double, double, double[])} up to the steady-state tolerance
+     */
+    public GridSweep.BatchFunction batch() {
+        CarbonReactor model = copyModel();
+        return (x, y, out) -> {
+            ReactorBatch batch = new ReactorBatch(model, x.length);
+            batch.setChunkSize(Math.max(1, x.length));
+            for (int k = 0; k < x.length; k++) {
+                batch.init(k, cCH4In, cC3H4In, cO2In, x[k], y[k]);
+            }
+            batch.run(seconds, steps);
+            for (int k = 0; k < x.length; k++) {
+                out[k] = -batch.getcC(k);
+            }
+        };
+    }
+
+    //Parameters of the model without its rate table, as the plain and dual runs use, with the kernel built before sharing
+    private CarbonReactor copyModel() {
+        CarbonReactor copy = new CarbonReactor();
+        copy.setR(model.getR());
+        copy.setA1(model.getA1());
+        copy.setA2(model.getA2());
+        copy.setA3(model.getA3());
+        copy.setE1(model.getE1());
+        copy.setE2(model.getE2());
+        copy.setE3(model.getE3());
+        copy.setQ1(model.getQ1());
+        copy.setQ2(model.getQ2());
+        copy.setDensity(model.getDensity());
+        copy.setCt(model.getCt());
+        copy.setVolumeRate(model.getVolumeRate());
+        copy.getKernel();
+        return copy;
+    }
+
+    private static void values(Dual[] state, double[] out) {
+        for (int i = 0; i < ReactorKernel.SIZE; i++) {
+            out[i] = state[i].getValue();
+        }
+    }
+
+    /**@return Number of steps made by the last evaluation*/
+    public int getLastSteps() {
+        return lastSteps;
+    }
+
+    public double getSeconds() {
+        return seconds;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        if (tolerance <= 0) throw new IllegalArgumentException("Tolerance must be positive");
+        this.tolerance = tolerance;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public void setWindow(int window) {
+        if (window < 1) throw new IllegalArgumentException("Window must be positive");
+        this.window = window;
+    }
+}
@@ -0,0 +1,426 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.RandomProcessIterator;
+import ionshield.carbonreactor.math.XoshiroRNG;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Monte Carlo ensemble of a randomized scenario: many realizations of the random CH4 inlet, each with its own random sequence,
+ * run in parallel on a ForkJoin pool. Raw sequences come from {@link XoshiroRNG} streams instead of the congruential generator
+ * of the scenario: a generator seeded with the scenario seed splits off one stream per realization in realization order
+ * before anything runs, so the streams are 2^128 values apart and do not depend on the number of threads. Mean, variance and a histogram of the carbon concentration and the temperature are
+ * aggregated online at every {@code stride}-th step, so individual trajectories are never stored.
+ * Realizations are grouped into fixed blocks that are always run and merged in the same order, independent of the
+ * number of threads, so results are bit-reproducible. Quantiles are read from per-record histograms and are exact to a bin width.
+ * Optionally every block tabulates the reactor mapping over one step in its own {@link IsatTable}, so realizations of a block
+ * reuse the chemistry of earlier ones; the results stay reproducible but are exact only to the tabulation tolerance.
+ */
+public class EnsembleRunner {
+    public static final int CARBON = 0;
+    public static final int TEMPERATURE = 1;
+    private static final int COLUMNS = 2;
+
+    private final Scenario scenario;
+    private final int realizations;
+
+    private int stride;
+    private int blockSize = 8;
+    private int bins = 256;
+    private boolean tabulated = false;
+    private double tabulationTolerance = 1e-4;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public EnsembleRunner(Scenario scenario, int realizations) {
+        if (realizations < 1) throw new IllegalArgumentException("Number of realizations must be positive");
+        this.scenario = scenario;
+        this.realizations = realizations;
+        stride = Math.max(1, scenario.getSteps() / 1000);
+    }
+
+    /**
+     * Runs the first block serially as a pilot: histogram ranges of every record are set to three times the spread of the
+     * pilot samples around them. The other blocks run in parallel and are merged into the pilot block.
+     */
+    public Statistics run() {
+        int records = records();
+        int blocks = (realizations + blockSize - 1) / blockSize;
+        //Streams are split before any block runs and are never split again, as nested splits would overlap
+        XoshiroRNG root = new XoshiroRNG(scenario.getSeed());
+        XoshiroRNG[] streams = new XoshiroRNG[realizations];
+        for (int r = 0; r < realizations; r++) {
+            streams[r] = root.split();
+        }
+
+        int pilotSize = Math.min(blockSize, realizations);
+        double[][][] pilot = new double[pilotSize][][];
+        IsatTable table = createTable();
+        for (int r = 0; r < pilotSize; r++) {
+            pilot[r] = sample(streams[r], table);
+        }
+
+        double[][] lower = new double[COLUMNS][records];
+        double[][] upper = new double[COLUMNS][records];
+        for (int c = 0; c < COLUMNS; c++) {
+            for (int i = 0; i < records; i++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (double[][] samples : pilot) {
+                    min = Math.min(min, samples[c][i]);
+                    max = Math.max(max, samples[c][i]);
+                }
+                double spread = Math.max(max - min, Math.max(Math.abs(max), Math.abs(min)) * 1e-9 + Double.MIN_NORMAL);
+                lower[c][i] = min - spread;
+                upper[c][i] = max + spread;
+            }
+        }
+
+        Statistics res = new Statistics(records, bins, stride * scenario.getDeltaTime(), lower, upper);
+        for (double[][] samples : pilot) {
+            res.add(samples);
+        }
+        res.addTabulation(table);
+        if (blocks > 1) {
+            res.merge(pool.invoke(new BlockTask(1, blocks, streams, lower, upper)));
+        }
+        return res;
+    }
+
+    /**
+     * @return Carbon concentration and temperature of every record of a realization
+     */
+    private double[][] sample(XoshiroRNG stream, IsatTable table) {
+        double[][] res = new double[COLUMNS][records()];
+        RandomProcessIterator z = scenario.randomProcess(() -> new XoshiroRNG(stream));
+        CarbonReactor reactor = scenario.createReactor();
+        //Run asks for the inlet of every tick once, in order
+        reactor.run(scenario.getDeltaTime(), scenario.getSteps(), i -> z.nextDouble(), scenario.getcC3H4In(), scenario.getcO2In(), scenario.gettIn(), new TrajectorySink() {
+            private double heatCapacity;
+            private int index = 0;
+
+            @Override
+            public void begin(ReactorKernel kernel) {
+                heatCapacity = kernel.getHeatCapacity();
+            }
+
+            @Override
+            public void accept(double time, double[] state) {
+                if (index % stride == 0) {
+                    res[CARBON][index / stride] = state[ReactorKernel.C];
+                    res[TEMPERATURE][index / stride] = state[ReactorKernel.Q] / heatCapacity;
+                }
+                index++;
+            }
+        }, null, table);
+        return res;
+    }
+
+    private IsatTable createTable() {
+        if (!tabulated) {
+            return null;
+        }
+        IsatTable table = new IsatTable(scenario.getDeltaTime(), 1);
+        table.setTolerance(tabulationTolerance);
+        return table;
+    }
+
+    private Statistics runBlock(int block, XoshiroRNG[] streams, double[][] lower, double[][] upper) {
+        Statistics res = new Statistics(records(), bins, stride * scenario.getDeltaTime(), lower, upper);
+        int from = block * blockSize;
+        int to = Math.min(realizations, from + blockSize);
+        IsatTable table = createTable();
+        for (int r = from; r < to; r++) {
+            res.add(sample(streams[r], table));
+        }
+        res.addTabulation(table);
+        return res;
+    }
+
+    private int records() {
+        return scenario.getSteps() / stride + 1;
+    }
+
+    private class BlockTask extends RecursiveTask<Statistics> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final XoshiroRNG[] streams;
+        private final double[][] lower;
+        private final double[][] upper;
+
+        BlockTask(int from, int to, XoshiroRNG[] streams, double[][] lower, double[][] upper) {
+            this.from = from;
+            this.to = to;
+            this.streams = streams;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        protected Statistics compute() {
+            if (to - from == 1) {
+                return runBlock(from, streams, lower, upper);
+            }
+            int mid = (from + to) >>> 1;
+            BlockTask left = new BlockTask(from, mid, streams, lower, upper);
+            BlockTask right = new BlockTask(mid, to, streams, lower, upper);
+            right.fork();
+            Statistics res = left.compute();
+            res.merge(right.join());
+            return res;
+        }
+    }
+
+    /**
+     * Per-record statistics over realizations. Record {@code i} is the state after {@code i * stride} steps.
+     */
+    public static class Statistics {
+        private final int records;
+        private final int bins;
+        private final double interval;
+        private final double[][] lower;
+        private final double[][] upper;
+
+        private long count;
+        private final double[][] mean;
+        private final double[][] m2;
+        private final double[][] min;
+        private final double[][] max;
+        //Per record: underflow, bins, overflow
+        private final int[][] histogram;
+
+        private long queries;
+        private long hits;
+        private long grows;
+        private long adds;
+
+        Statistics(int records, int bins, double interval, double[][] lower, double[][] upper) {
+            this.records = records;
+            this.bins = bins;
+            this.interval = interval;
+            this.lower = lower;
+            this.upper = upper;
+            mean = new double[COLUMNS][records];
+            m2 = new double[COLUMNS][records];
+            min = new double[COLUMNS][records];
+            max = new double[COLUMNS][records];
+            for (int c = 0; c < COLUMNS; c++) {
+                Arrays.fill(min[c], Double.POSITIVE_INFINITY);
+                Arrays.fill(max[c], Double.NEGATIVE_INFINITY);
+            }
+            histogram = new int[COLUMNS][records * (bins + 2)];
+        }
+
+        /**
+         * Adds all records of one more realization
+         */
+        void add(double[][] samples) {
+            count++;
+            for (int c = 0; c < COLUMNS; c++) {
+                for (int r = 0; r < records; r++) {
+                    double v = samples[c][r];
+                    double delta = v - mean[c][r];
+                    mean[c][r] += delta / count;
+                    m2[c][r] += delta * (v - mean[c][r]);
+                    min[c][r] = Math.min(min[c][r], v);
+                    max[c][r] = Math.max(max[c][r], v);
+                    histogram[c][r * (bins + 2) + bin(c, r, v)]++;
+                }
+            }
+        }
+
+        private int bin(int c, int r, double v) {
+            if (!(v >= lower[c][r])) return 0;
+            if (v >= upper[c][r]) return bins + 1;
+            return 1 + Math.min(bins - 1, (int) ((v - lower[c][r]) / (upper[c][r] - lower[c][r]) * bins));
+        }
+
+        void addTabulation(IsatTable table) {
+            if (table != null) {
+                queries += table.getQueries();
+                hits += table.getHits();
+                grows += table.getGrows();
+                adds += table.getAdds();
+            }
+        }
+
+        /**
+         * Merges statistics of later realizations into these
+         */
+        void merge(Statistics b) {
+            long n = count + b.count;
+            for (int c = 0; c < COLUMNS; c++) {
+                for (int r = 0; r < records; r++) {
+                    double delta = b.mean[c][r] - mean[c][r];
+                    mean[c][r] += delta * b.count / n;
+                    m2[c][r] += b.m2[c][r] + delta * delta * count * b.count / n;
+                    min[c][r] = Math.min(min[c][r], b.min[c][r]);
+                    max[c][r] = Math.max(max[c][r], b.max[c][r]);
+                }
+                for (int i = 0; i < histogram[c].length; i++) {
+                    histogram[c][i] += b.histogram[c][i];
+                }
+            }
+            count = n;
+            queries += b.queries;
+            hits += b.hits;
+            grows += b.grows;
+            adds += b.adds;
+        }
+
+        public long getRealizations() {
+            return count;
+        }
+
+        /**@return Fraction of tabulated steps retrieved from a record, 0 without tabulation*/
+        public double getHitRate() {
+            return queries == 0 ? 0 : hits / (double)queries;
+        }
+
+        public double getGrowRate() {
+            return queries == 0 ? 0 : grows / (double)queries;
+        }
+
+        public double getAddRate() {
+            return queries == 0 ? 0 : adds / (double)queries;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public double getTime(int record) {
+            return record * interval;
+        }
+
+        /**
+         * @param column {@link #CARBON} or {@link #TEMPERATURE}
+         */
+        public double getMean(int column, int record) {
+            return mean[column][record];
+        }
+
+        /**@return Sample variance over realizations, NaN for a single realization*/
+        public double getVariance(int column, int record) {
+            return count > 1 ? m2[column][record] / (count - 1) : Double.NaN;
+        }
+
+        /**
+         * @param p Probability in [0, 1]
+         * @return Quantile interpolated within its histogram bin, clamped to the range of the samples;
+         * exact if all samples of the record are equal
+         */
+        public double getQuantile(int column, int record, double p) {
+            if (p < 0 || p > 1) throw new IllegalArgumentException("Probability must be in [0, 1]");
+            double lo = min[column][record];
+            double hi = max[column][record];
+            if (lo == hi) {
+                return lo;
+            }
+            return Math.max(lo, Math.min(hi, histogramQuantile(column, record, p)));
+        }
+
+        private double histogramQuantile(int column, int record, double p) {
+            int base = record * (bins + 2);
+            double target = p * count;
+            double width = (upper[column][record] - lower[column][record]) / bins;
+            long cumulative = histogram[column][base];
+            if (cumulative >= target && cumulative > 0) {
+                return lower[column][record];
+            }
+            for (int b = 0; b < bins; b++) {
+                int inBin = histogram[column][base + 1 + b];
+                if (inBin > 0 && cumulative + inBin >= target) {
+                    return lower[column][record] + width * (b + (target - cumulative) / inBin);
+                }
+                cumulative += inBin;
+            }
+            return upper[column][record];
+        }
+
+        public double getMin(int column, int record) {
+            return min[column][record];
+        }
+
+        public double getMax(int column, int record) {
+            return max[column][record];
+        }
+
+        /**@return Number of samples of a record that fell outside the histogram range*/
+        public long getOutOfRange(int column, int record) {
+            int base = record * (bins + 2);
+            return histogram[column][base] + histogram[column][base + bins + 1];
+        }
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public int getRealizations() {
+        return realizations;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public void setStride(int stride) {
+        if (stride < 1) throw new IllegalArgumentException("Stride must be positive");
+        this.stride = stride;
+    }
+
+    /**@return Number of realizations run and aggregated together as one unit of work*/
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be positive");
+        this.blockSize = blockSize;
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    public void setBins(int bins) {
+        if (bins < 1) throw new IllegalArgumentException("Number of bins must be positive");
+        this.bins = bins;
+    }
+
+    public boolean isTabulated() {
+        return tabulated;
+    }
+
+    /**
+     * Enables tabulation of the reactor step. A retrieval costs more than one explicit Euler step of this mechanism,
+     * so it is off by default and pays off only if the step itself becomes more expensive
+     */
+    public void setTabulated(boolean tabulated) {
+        this.tabulated = tabulated;
+    }
+
+    public double getTabulationTolerance() {
+        return tabulationTolerance;
+    }
+
+    /**
+     * @see IsatTable#setTolerance
+     */
+    public void setTabulationTolerance(double tabulationTolerance) {
+        if (tabulationTolerance <= 0) throw new IllegalArgumentException("Tolerance must be positive");
+        this.tabulationTolerance = tabulationTolerance;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
@@ -0,0 +1,33 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Fixed-step explicit Euler, the same scheme as {@link CarbonReactor#tick}
+ */
+public class EulerIntegrator extends AbstractIntegrator {
+    private double step;
+
+    public EulerIntegrator(double step) {
+        setStep(step);
+    }
+
+    @Override
+    public void advance(ReactorKernel kernel, double[] state, double duration, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        long count = (long)Math.ceil(duration / step - 1e-9);
+        if (count <= 0) return;
+        double h = duration / count;
+        for (long i = 0; i < count; i++) {
+            kernel.step(state, h, cCH4In, cC3H4In, cO2In, tIn, state);
+        }
+        countAccepted(count);
+        countEvaluations(count);
+    }
+
+    public double getStep() {
+        return step;
+    }
+
+    public void setStep(double step) {
+        if (step <= 0) throw new IllegalArgumentException("Step must be positive");
+        this.step = step;
+    }
+}
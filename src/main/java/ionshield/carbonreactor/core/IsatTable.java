@@ -0,0 +1,476 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * In-situ adaptive tabulation (Pope, 1997) of the reactor mapping over a fixed interval of {@code substeps} Euler ticks.
+ * The query is the state together with the inlet (cCH4In, cC3H4In, cO2In, tIn); enthalpy is scaled by the heat capacity
+ * so every component is measured in mol/m^3 or K. Records hold the mapped state and its exact sensitivity (propagated through
+ * the Euler steps with the analytic Jacobian) and an ellipsoid of accuracy, and are kept in a binary tree of cutting planes.
+ * A query is retrieved by linear approximation if it lies in the ellipsoid of the leaf it reaches; otherwise the mapping is
+ * evaluated directly and the leaf either grows its ellipsoid (error within tolerance) or a new record is added.
+ * Records are also kept in a list ordered by last use, so the least recently used one is evicted in constant time
+ * when the record limit is reached. Not thread-safe.
+ */
+public class IsatTable extends AbstractIntegrator {
+    private static final int N = ReactorKernel.SIZE;
+    private static final int D = N + 4;
+    /**
+     * Approximate heap footprint of one record: the leaf with its point, value, mapping gradient and ellipsoid,
+     * and the internal node with the cutting plane that adding it creates
+     */
+    public static final long RECORD_BYTES = 8L * (D + N + N * D + D * D) + 160 + 8L * D + 112;
+
+    private final double step;
+    private final int substeps;
+
+    private double tolerance = 1e-4;
+    private double maxRadius = 1;
+    private int maxRecords = 10000;
+
+    private ReactorKernel kernel;
+    private Node root;
+    //Least and most recently used records
+    private Node oldest;
+    private Node newest;
+    private int records;
+
+    private long queries;
+    private long hits;
+    private long grows;
+    private long adds;
+    private long evictions;
+
+    private final double[] scale = new double[D];
+    private final double[] query = new double[D];
+    private final double[] dx = new double[D];
+    private final double[] mdx = new double[D];
+    private final double[] mapped = new double[N];
+    private final double[] jacobian = new double[N * N];
+    private final double[] sensitivity = new double[N * D];
+    private final double[] sensitivityNext = new double[N * D];
+
+    /**
+     * @param step Length of one Euler tick
+     * @param substeps Number of ticks in one tabulated interval
+     */
+    public IsatTable(double step, int substeps) {
+        if (step <= 0 || substeps < 1) throw new IllegalArgumentException("Invalid tabulation interval");
+        this.step = step;
+        this.substeps = substeps;
+    }
+
+    @Override
+    public void advance(ReactorKernel kernel, double[] state, double duration, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        double interval = getInterval();
+        long count = (long)Math.floor(duration / interval + 1e-9);
+        for (long i = 0; i < count; i++) {
+            map(kernel, state, cCH4In, cC3H4In, cO2In, tIn);
+        }
+        double rest = duration - count * interval;
+        if (rest > 1e-9 * interval) {
+            long ticks = (long)Math.ceil(rest / step - 1e-9);
+            double h = rest / ticks;
+            for (long i = 0; i < ticks; i++) {
+                kernel.step(state, h, cCH4In, cC3H4In, cO2In, tIn, state);
+            }
+            countEvaluations(ticks);
+        }
+    }
+
+    /**
+     * Advances {@code state} in place by one tabulated interval
+     */
+    public void map(ReactorKernel kernel, double[] state, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        if (kernel != this.kernel) {
+            bind(kernel);
+        }
+        queries++;
+        countAccepted();
+
+        for (int i = 0; i < N; i++) {
+            query[i] = state[i] / scale[i];
+        }
+        query[N] = cCH4In;
+        query[N + 1] = cC3H4In;
+        query[N + 2] = cO2In;
+        query[N + 3] = tIn;
+
+        Node leaf = find(query);
+        if (leaf != null) {
+            for (int i = 0; i < D; i++) {
+                dx[i] = query[i] - leaf.x0[i];
+            }
+            double gamma2 = quadratic(leaf.m, dx, mdx);
+            if (gamma2 <= 1) {
+                hits++;
+                touch(leaf);
+                approximate(leaf, dx, state);
+                return;
+            }
+
+            evaluate(query, mapped, null);
+            double err = 0;
+            for (int i = 0; i < N; i++) {
+                double approx = leaf.r0[i];
+                for (int j = 0; j < D; j++) {
+                    approx += leaf.a[i * D + j] * dx[j];
+                }
+                double e = (mapped[i] - approx) / scale[i];
+                err += e * e;
+            }
+            if (Math.sqrt(err) <= tolerance) {
+                grows++;
+                touch(leaf);
+                grow(leaf.m, mdx, gamma2);
+                System.arraycopy(mapped, 0, state, 0, N);
+                return;
+            }
+        }
+
+        adds++;
+        evaluate(query, mapped, sensitivity);
+        add(leaf, query, mapped, sensitivity);
+        System.arraycopy(mapped, 0, state, 0, N);
+    }
+
+    private void bind(ReactorKernel kernel) {
+        clear();
+        this.kernel = kernel;
+        for (int i = 0; i < D; i++) {
+            scale[i] = 1;
+        }
+        scale[ReactorKernel.Q] = kernel.getHeatCapacity();
+    }
+
+    /**
+     * Removes all records
+     */
+    public void clear() {
+        root = null;
+        oldest = null;
+        newest = null;
+        records = 0;
+    }
+
+    private Node find(double[] x) {
+        Node node = root;
+        while (node != null && node.r0 == null) {
+            double dot = 0;
+            for (int i = 0; i < D; i++) {
+                dot += node.v[i] * x[i];
+            }
+            node = dot < node.threshold ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private static double quadratic(double[] m, double[] x, double[] mx) {
+        double sum = 0;
+        for (int i = 0; i < D; i++) {
+            double row = 0;
+            for (int j = 0; j < D; j++) {
+                row += m[i * D + j] * x[j];
+            }
+            mx[i] = row;
+            sum += x[i] * row;
+        }
+        return sum;
+    }
+
+    private static void approximate(Node leaf, double[] dx, double[] out) {
+        for (int i = 0; i < N; i++) {
+            double value = leaf.r0[i];
+            for (int j = 0; j < D; j++) {
+                value += leaf.a[i * D + j] * dx[j];
+            }
+            out[i] = value;
+        }
+    }
+
+    /**
+     * Minimal-volume update of the centered ellipsoid x^T M x <= 1 to cover a point p with p^T M p = gamma2 > 1
+     */
+    private static void grow(double[] m, double[] mp, double gamma2) {
+        double c = (1 - 1 / gamma2) / gamma2;
+        for (int i = 0; i < D; i++) {
+            for (int j = 0; j < D; j++) {
+                m[i * D + j] -= c * mp[i] * mp[j];
+            }
+        }
+    }
+
+    /**
+     * Runs the Euler ticks of one interval from the scaled query; if {@code sens} is not null it receives
+     * the derivative of the mapped state with respect to the scaled query (N x D, row-major)
+     */
+    private void evaluate(double[] x, double[] out, double[] sens) {
+        for (int i = 0; i < N; i++) {
+            out[i] = x[i] * scale[i];
+        }
+        double cCH4In = x[N];
+        double cC3H4In = x[N + 1];
+        double cO2In = x[N + 2];
+        double tIn = x[N + 3];
+
+        if (sens != null) {
+            for (int i = 0; i < N * D; i++) {
+                sens[i] = 0;
+            }
+            for (int i = 0; i < N; i++) {
+                sens[i * D + i] = scale[i];
+            }
+        }
+        double invTs = 1 / kernel.getResidenceTime();
+        double flowHeat = kernel.getFlowHeatCapacity();
+
+        for (int s = 0; s < substeps; s++) {
+            if (sens != null) {
+                kernel.jacobian(out, jacobian);
+                for (int i = 0; i < N; i++) {
+                    for (int j = 0; j < D; j++) {
+                        double sum = 0;
+                        for (int k = 0; k < N; k++) {
+                            sum += jacobian[i * N + k] * sens[k * D + j];
+                        }
+                        sensitivityNext[i * D + j] = sens[i * D + j] + step * sum;
+                    }
+                }
+                sensitivityNext[ReactorKernel.CH4 * D + N] += step * invTs;
+                sensitivityNext[ReactorKernel.C3H4 * D + N + 1] += step * invTs;
+                sensitivityNext[ReactorKernel.O2 * D + N + 2] += step * invTs;
+                sensitivityNext[ReactorKernel.Q * D + N + 3] += step * flowHeat;
+                System.arraycopy(sensitivityNext, 0, sens, 0, N * D);
+            }
+            kernel.step(out, step, cCH4In, cC3H4In, cO2In, tIn, out);
+        }
+        countEvaluations(substeps);
+    }
+
+    private void add(Node near, double[] x, double[] r, double[] a) {
+        if (records >= maxRecords) {
+            evict();
+            near = find(x);
+        }
+
+        Node leaf = new Node();
+        leaf.x0 = x.clone();
+        leaf.r0 = r.clone();
+        leaf.a = a.clone();
+        leaf.m = new double[D * D];
+
+        //Initial ellipsoid: region where the linear change of the scaled output stays within tolerance, bounded by maxRadius
+        double invTol2 = 1 / (tolerance * tolerance);
+        for (int i = 0; i < D; i++) {
+            for (int j = i; j < D; j++) {
+                double sum = 0;
+                for (int k = 0; k < N; k++) {
+                    sum += (a[k * D + i] / scale[k]) * (a[k * D + j] / scale[k]);
+                }
+                sum *= invTol2;
+                if (i == j) sum += 1 / (maxRadius * maxRadius);
+                leaf.m[i * D + j] = sum;
+                leaf.m[j * D + i] = sum;
+            }
+        }
+
+        append(leaf);
+        records++;
+
+        if (near == null) {
+            root = leaf;
+            return;
+        }
+
+        Node split = new Node();
+        split.v = new double[D];
+        double threshold = 0;
+        for (int i = 0; i < D; i++) {
+            split.v[i] = x[i] - near.x0[i];
+            threshold += split.v[i] * (x[i] + near.x0[i]) / 2;
+        }
+        split.threshold = threshold;
+        split.left = near;
+        split.right = leaf;
+        replace(near, split);
+        near.parent = split;
+        leaf.parent = split;
+    }
+
+    private void evict() {
+        Node evicted = oldest;
+        if (evicted == null) return;
+        evictions++;
+        unlink(evicted);
+        records--;
+
+        Node parent = evicted.parent;
+        if (parent == null) {
+            root = null;
+            return;
+        }
+        Node sibling = parent.left == evicted ? parent.right : parent.left;
+        replace(parent, sibling);
+    }
+
+    private void touch(Node leaf) {
+        if (leaf != newest) {
+            unlink(leaf);
+            append(leaf);
+        }
+    }
+
+    private void append(Node leaf) {
+        leaf.older = newest;
+        leaf.newer = null;
+        if (newest != null) {
+            newest.newer = leaf;
+        }
+        else {
+            oldest = leaf;
+        }
+        newest = leaf;
+    }
+
+    private void unlink(Node leaf) {
+        if (leaf.older != null) {
+            leaf.older.newer = leaf.newer;
+        }
+        else {
+            oldest = leaf.newer;
+        }
+        if (leaf.newer != null) {
+            leaf.newer.older = leaf.older;
+        }
+        else {
+            newest = leaf.older;
+        }
+        leaf.older = null;
+        leaf.newer = null;
+    }
+
+    private void replace(Node node, Node by) {
+        Node parent = node.parent;
+        by.parent = parent;
+        if (parent == null) {
+            root = by;
+        }
+        else if (parent.left == node) {
+            parent.left = by;
+        }
+        else {
+            parent.right = by;
+        }
+    }
+
+    private static class Node {
+        Node parent;
+
+        //Cutting plane of an internal node
+        Node left;
+        Node right;
+        double[] v;
+        double threshold;
+
+        //Record of a leaf
+        double[] x0;
+        double[] r0;
+        double[] a;
+        double[] m;
+        Node older;
+        Node newer;
+    }
+
+    public double getInterval() {
+        return step * substeps;
+    }
+
+    public double getStep() {
+        return step;
+    }
+
+    public int getSubsteps() {
+        return substeps;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    public long getQueries() {
+        return queries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getGrows() {
+        return grows;
+    }
+
+    public long getAdds() {
+        return adds;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRate() {
+        return queries == 0 ? 0 : hits / (double)queries;
+    }
+
+    public double getGrowRate() {
+        return queries == 0 ? 0 : grows / (double)queries;
+    }
+
+    public double getAddRate() {
+        return queries == 0 ? 0 : adds / (double)queries;
+    }
+
+    @Override
+    public void resetStatistics() {
+        super.resetStatistics();
+        queries = 0;
+        hits = 0;
+        grows = 0;
+        adds = 0;
+        evictions = 0;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the allowed 2-norm of the retrieval error in mol/m^3 and K; existing records keep their ellipsoids
+     */
+    public void setTolerance(double tolerance) {
+        if (tolerance <= 0) throw new IllegalArgumentException("Tolerance must be positive");
+        this.tolerance = tolerance;
+    }
+
+    public double getMaxRadius() {
+        return maxRadius;
+    }
+
+    public void setMaxRadius(double maxRadius) {
+        if (maxRadius <= 0) throw new IllegalArgumentException("Radius must be positive");
+        this.maxRadius = maxRadius;
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    public void setMaxRecords(int maxRecords) {
+        if (maxRecords < 1) throw new IllegalArgumentException("Record limit must be positive");
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Sets the record limit from a memory budget in bytes
+     */
+    public void setMemoryLimit(long bytes) {
+        setMaxRecords((int)Math.max(1, Math.min(Integer.MAX_VALUE, bytes / RECORD_BYTES)));
+    }
+}
@@ -9,7 +9,6 @@ import ionshield.carbonreactor.math.*;
 import javax.swing.*;
 import javax.swing.plaf.basic.BasicLookAndFeel;
 import java.util.*;
-import java.util.function.BiFunction;
 
 public class MainWindow {
     private JPanel rootPanel;
@@ -48,6 +47,12 @@ public class MainWindow {
     private GraphDisplay[] graphs = new GraphDisplay[] {};
 
     public static final String TITLE = "Carbon-Reactor";
+    /**Bucket budget of plotted trajectories, more than the pixel width of a graph*/
+    public static final int GRAPH_BUCKETS = 2048;
+    /**Memory budget of the run cache in bytes*/
+    public static final long RUN_CACHE_BUDGET = 128L << 20;
+
+    private final RunCache<MinMaxDownsampler> runCache = new RunCache<>(() -> new MinMaxDownsampler(GRAPH_BUCKETS, ReactorKernel.C, ColumnarTrajectory.TEMPERATURE, ReactorKernel.CH4, ReactorKernel.C3H4, ReactorKernel.O2), RUN_CACHE_BUDGET);
     
     private MainWindow() {
         initComponents();
@@ -63,143 +68,101 @@ public class MainWindow {
     private void calculate() {
         try {
             log.setText("");
-            
-            double cCH4Fraction = Double.parseDouble(cCH4Field.getText());
-            double cC3H4Fraction = Double.parseDouble(cC3H4Field.getText());
-            double cO2Fraction = 1 - cC3H4Fraction - cCH4Fraction;
 
-            double v = Double.parseDouble(vField.getText());
-            double tIn = Double.parseDouble(tInField.getText());
-    
-            double time = Double.parseDouble(timeField.getText());
-            double deltaTime = Double.parseDouble(deltaTimeField.getText());
-
-            long seed;
-            long multi;
-            long mod;
-            double m0 = 0, s0 = 0, a0 = 0;
-            List<Double> rowX = new ArrayList<>();
-            List<Double> rowZ = new ArrayList<>();
-
-            int steps = Math.min((int)Math.round(time / deltaTime), 10000000);
-
-            if (randomizeCheckBox.isSelected()) {
-                seed = Long.parseLong(seedField.getText());
-                multi = Long.parseLong(multiField.getText());
-                mod = Long.parseLong(modField.getText());
-                m0 = Double.parseDouble(m0Field.getText());
-                s0 = Double.parseDouble(s0Field.getText());
-                a0 = Double.parseDouble(a0Field.getText());
-
-                RNG<Double> rng = new CongruentialRNG(seed, multi, mod);
-                //Random random = new Random(seed);
-                RandomProcessGenerator rpg = new RandomProcessGenerator(m0, s0, a0, rowX);
-                while (rowX.size() < steps * rpg.getnS()) {
-                    rowX.add(rng.getInRange(-0.5, 0.5));
-                    //rowX.add(random.nextDouble() - 0.5);
-                }
-                for (int i = 0; i < steps; i++) {
-                    double val = rpg.getZ(i + 1);
-                    rowZ.add(val);
-                }
+            Scenario scenario = new Scenario();
+            scenario.setcCH4Fraction(Double.parseDouble(cCH4Field.getText()));
+            scenario.setcC3H4Fraction(Double.parseDouble(cC3H4Field.getText()));
+            scenario.setVolume(Double.parseDouble(vField.getText()));
+            scenario.settIn(Double.parseDouble(tInField.getText()));
+            scenario.setTime(Double.parseDouble(timeField.getText()));
+            scenario.setDeltaTime(Double.parseDouble(deltaTimeField.getText()));
+
+            scenario.setRandomized(randomizeCheckBox.isSelected());
+            if (scenario.isRandomized()) {
+                scenario.setSeed(Long.parseLong(seedField.getText()));
+                scenario.setMultiplier(Long.parseLong(multiField.getText()));
+                scenario.setModulus(Long.parseLong(modField.getText()));
+                scenario.setM0(Double.parseDouble(m0Field.getText()));
+                scenario.setS0(Double.parseDouble(s0Field.getText()));
+                scenario.setA0(Double.parseDouble(a0Field.getText()));
+            }
+
+            scenario.setOptimized(optimizeCheckBox.isSelected());
+            if (scenario.isOptimized()) {
+                scenario.setMinV(Double.parseDouble(minVField.getText()));
+                scenario.setMaxV(Double.parseDouble(maxVField.getText()));
+                scenario.setMinT(Double.parseDouble(minTField.getText()));
+                scenario.setMaxT(Double.parseDouble(maxTField.getText()));
             }
 
-            CarbonReactor reactor = new CarbonReactor();
+            int steps = scenario.getSteps();
+            RunCache.Result<MinMaxDownsampler> run = runCache.run(scenario);
+            CarbonReactor reactor = run.reactor;
+            MinMaxDownsampler trajectory = run.sink;
+            int made = run.ticks;
+
             Interpolator[] result = new Interpolator[5];
-            
-            List<PointDouble> points0 = new ArrayList<>();
-            List<PointDouble> points1 = new ArrayList<>();
-            List<PointDouble> points2 = new ArrayList<>();
-            List<PointDouble> points3 = new ArrayList<>();
-            List<PointDouble> points4 = new ArrayList<>();
-
-            double cCH4 = reactor.concentrationInMolesPerCubicMeter(cCH4Fraction, reactor.getmCH4());
-            double cC3H4 = reactor.concentrationInMolesPerCubicMeter(cC3H4Fraction, reactor.getmC3H4());
-            double cO2 = reactor.concentrationInMolesPerCubicMeter(cO2Fraction, reactor.getmO2());
-    
-            reactor.init(randomizeCheckBox.isSelected() ? m0 : cCH4, cC3H4, cO2, v, tIn);
-            
-            points0.add(new PointDouble(0, reactor.getcC()));
-            points1.add(new PointDouble(0, reactor.getQ() / (reactor.getVolume() * reactor.getDensity() * reactor.getCt())));
-            points2.add(new PointDouble(0, reactor.getcCH4()));
-            points3.add(new PointDouble(0, reactor.getcC3H4()));
-            points4.add(new PointDouble(0, reactor.getcO2()));
-            
-            for (int i = 0; i < steps; i++) {
-                reactor.tick(deltaTime, randomizeCheckBox.isSelected() ? rowZ.get(i) : cCH4, cC3H4, cO2, tIn);
-                
-                double currTime = reactor.getTime();
-    
-                PointDouble point0 = new PointDouble(currTime, reactor.getcC());
-                PointDouble point1 = new PointDouble(currTime, reactor.getQ() / (reactor.getVolume() * reactor.getDensity() * reactor.getCt()));
-                PointDouble point2 = new PointDouble(currTime, reactor.getcCH4());
-                PointDouble point3 = new PointDouble(currTime, reactor.getcC3H4());
-                PointDouble point4 = new PointDouble(currTime, reactor.getcO2());
-                
-                points0.add(point0);
-                points1.add(point1);
-                points2.add(point2);
-                points3.add(point3);
-                points4.add(point4);
-                
-                log.append("\n" + point0.toString(6));
+            result[0] = trajectory.interpolator(ReactorKernel.C);
+            result[1] = trajectory.interpolator(ColumnarTrajectory.TEMPERATURE);
+            result[2] = trajectory.interpolator(ReactorKernel.CH4);
+            result[3] = trajectory.interpolator(ReactorKernel.C3H4);
+            result[4] = trajectory.interpolator(ReactorKernel.O2);
+
+            //Log is thinned to the same budget as the graphs
+            for (int i = 0; i <= GRAPH_BUCKETS; i++) {
+                double t = result[0].lower() + (result[0].upper() - result[0].lower()) * i / GRAPH_BUCKETS;
+                log.append("\n" + new PointDouble(t, result[0].evaluate(t)).toString(6));
+            }
+            if (made < steps) {
+                log.append("\nSteady state reached at t = " + GraphUtils.roundDouble(reactor.getTime(), 6, 10, true) + ", skipped " + (steps - made) + " steps");
+            }
+            if (run.reused > 0) {
+                log.append("\nReused " + run.reused + " of " + made + " steps from earlier runs");
             }
-                    
-            result[0] = new LinearInterpolator(points0);
-            result[1] = new LinearInterpolator(points1);
-            result[2] = new LinearInterpolator(points2);
-            result[3] = new LinearInterpolator(points3);
-            result[4] = new LinearInterpolator(points4);
             
-            updateGraphs(result, 0, time);
-            if (optimizeCheckBox.isSelected()) {
-                double minV = Double.parseDouble(minVField.getText());
-                double maxV = Double.parseDouble(maxVField.getText());
-                double minT = Double.parseDouble(minTField.getText());
-                double maxT = Double.parseDouble(maxTField.getText());
-
-                BiFunction<Double, Double, Double> function = (vol, temp) -> {
-                    CarbonReactor rc = new CarbonReactor();
-                    rc.init(cCH4, cC3H4, cO2, vol, temp);
-                    for (int i = 0; i < steps; i++) {
-                        rc.tick(deltaTime, cCH4, cC3H4, cO2, temp);
+            updateGraphs(result, 0, scenario.getTime());
+            if (scenario.isOptimized()) {
+                Scenario.Optimization optimization = scenario.optimize();
+                DifferentiableFunction function = optimization.objective;
+                PenaltyAdjuster pa = optimization.adjuster;
+
+                log.append("\nOptimized params V and tIn: " + optimization.point.toString(6) + "\n");
+                log.append("Result: " + GraphUtils.roundDouble(optimization.value, 6, 10, true) + " mol/m^3");
+                if (optimization.steadyStates > 1) {
+                    log.append("\nWarning: " + optimization.steadyStates + " steady states exist at the optimized parameters");
+                }
+                if (function instanceof ReactorObjective) {
+                    ReactorIntegrator integrator = ((ReactorObjective) function).getIntegrator();
+                    if (integrator.getEvaluations() > 0) {
+                        log.append("\nIntegrator steps: " + integrator.getAcceptedSteps() + " accepted, " + integrator.getRejectedSteps() + " rejected, " + integrator.getEvaluations() + " evaluations");
                     }
-                    return -rc.getcC();
-                };
-
-                Solver solver = new HookeJeevesSolver();
-                solver.setF(function);
-
-                List<BiFunction<Double, Double, Double>> limits = new ArrayList<>();
-                limits.add((x, y) -> x - minV);
-                limits.add((x, y) -> maxV - x);
-                limits.add((x, y) -> y - minT);
-                limits.add((x, y) -> maxT - y);
-
-                PenaltyAdjuster pa = new PenaltyAdjuster(solver, PenaltyAdjuster.QUADRATIC_PENALTY_FUNCTION, limits, new ArrayList<>(), true);
-
-                PointDouble res = pa.solve(new PointDouble(v, tIn), new PointDouble(0.5, 40));
-
-                log.append("\nOptimized params V and tIn: " + res.toString(6) + "\n");
-                log.append("Result: " + GraphUtils.roundDouble(-function.apply(res.getX(), res.getY()), 6, 10, true) + " mol/m^3");
+                }
 
                 contourGraphDisplay1.setPoints(pa.getPoints());
                 contourGraphDisplay1.setLines(pa.getLines());
 
-                contourGraphDisplay1.setLowerX(minV);
-                contourGraphDisplay1.setUpperX(maxV);
-                contourGraphDisplay1.setLowerY(minT);
-                contourGraphDisplay1.setUpperY(maxT);
+                contourGraphDisplay1.setLowerX(scenario.getMinV());
+                contourGraphDisplay1.setUpperX(scenario.getMaxV());
+                contourGraphDisplay1.setLowerY(scenario.getMinT());
+                contourGraphDisplay1.setUpperY(scenario.getMaxT());
                 contourGraphDisplay1.setUpperZ(+Double.MAX_VALUE);
                 contourGraphDisplay1.setLowerZ(-Double.MAX_VALUE);
                 contourGraphDisplay1.setResolution(30);
-                contourGraphDisplay1.setFunction(function);
+                if (function instanceof DualReactorObjective) {
+                    contourGraphDisplay1.setFunction(function, ((DualReactorObjective) function).batch());
+                }
+                else {
+                    contourGraphDisplay1.setFunction(function, scenario::createObjective);
+                }
                 contourGraphDisplay1.repaint();
             }
         }
         catch (NumberFormatException e) {
             log.append("\nInvalid input format");
         }
+        catch (IllegalArgumentException | InterpolationException e) {
+            log.append("\n" + e.getMessage());
+        }
     }
     
     private void updateGraphs(Interpolator[] result, double minX, double maxX) {
@@ -0,0 +1,209 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.Interpolator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a binary trajectory file written by {@link MappedTrajectoryWriter}, mapped block by block on demand,
+ * so files larger than the heap can be read and plotted.
+ * <p>
+ * The file is little-endian: a {@link #HEADER_BYTES} header (magic, version, column count, rows per block, sample count,
+ * heat capacity, then minimum, maximum and NaN count of every column) followed by blocks of fixed width.
+ * Each block holds {@code blockRows} samples stored column by column: time, the {@link ReactorKernel} state components
+ * and the temperature. The last block holds only the remaining {@code count - (blocks - 1) * blockRows} samples, stored the same way. Columns are addressed by {@link ReactorKernel} state constants and {@link #TEMPERATURE}.
+ */
+public class MappedTrajectory implements Closeable {
+    public static final int TEMPERATURE = ReactorKernel.SIZE;
+
+    static final int MAGIC = 0x43525446;
+    static final int VERSION = 2;
+    static final int COLUMNS = ReactorKernel.SIZE + 2;
+    static final int TIME_SLOT = 0;
+    static final int HEADER_BYTES = 512;
+    static final int DEFAULT_BLOCK_ROWS = 1 << 16;
+
+    private final FileChannel channel;
+    private final int blockRows;
+    private final long blockBytes;
+    private final long count;
+    private final int lastRows;
+    private final double heatCapacity;
+    private final double[] min = new double[COLUMNS];
+    private final double[] max = new double[COLUMNS];
+    private final long[] nans = new long[COLUMNS];
+
+    private MappedByteBuffer[] blocks;
+
+    public MappedTrajectory(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Not a trajectory file: " + path);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException("Not a trajectory file: " + path);
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported trajectory file version " + version);
+            if (header.getInt() != COLUMNS) throw new IOException("Unexpected number of columns in " + path);
+            blockRows = header.getInt();
+            count = header.getLong();
+            heatCapacity = header.getDouble();
+            for (int c = 0; c < COLUMNS; c++) {
+                min[c] = header.getDouble();
+                max[c] = header.getDouble();
+                nans[c] = header.getLong();
+            }
+            blockBytes = (long) blockRows * COLUMNS * Double.BYTES;
+            long blockCount = (count + blockRows - 1) / blockRows;
+            lastRows = (int) (count - Math.max(0, blockCount - 1) * blockRows);
+            if (channel.size() < HEADER_BYTES + Math.max(0, blockCount - 1) * blockBytes + (long) lastRows * COLUMNS * Double.BYTES) {
+                throw new IOException("Trajectory file is truncated: " + path);
+            }
+            blocks = new MappedByteBuffer[(int) blockCount];
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**@return Position of a column in a block*/
+    static int slot(int column) {
+        return column + 1;
+    }
+
+    private double read(int slot, long i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Sample " + i + " of " + count);
+        int b = (int) (i / blockRows);
+        int rows = b == blocks.length - 1 ? lastRows : blockRows;
+        MappedByteBuffer block = blocks[b];
+        if (block == null) {
+            try {
+                block = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + b * blockBytes, (long) rows * COLUMNS * Double.BYTES);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            block.order(ByteOrder.LITTLE_ENDIAN);
+            blocks[b] = block;
+        }
+        return block.getDouble((int) ((slot * (long) rows + i % blockRows) * Double.BYTES));
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public double getTime(long i) {
+        return read(TIME_SLOT, i);
+    }
+
+    public double get(int column, long i) {
+        return read(checkedSlot(column), i);
+    }
+
+    private static int checkedSlot(int column) {
+        if (column < 0 || column > TEMPERATURE) throw new IllegalArgumentException("Unknown column " + column);
+        return slot(column);
+    }
+
+    public double getHeatCapacity() {
+        return heatCapacity;
+    }
+
+    /**@return Smallest value of a column ignoring NaN, positive infinity if there are none*/
+    public double getMin(int column) {
+        return min[checkedSlot(column)];
+    }
+
+    /**@return Largest value of a column ignoring NaN, negative infinity if there are none*/
+    public double getMax(int column) {
+        return max[checkedSlot(column)];
+    }
+
+    public long getNaNCount(int column) {
+        return nans[checkedSlot(column)];
+    }
+
+    /**
+     * @return Linear interpolator of the column over time that reads the file directly, like {@link ionshield.carbonreactor.math.LinearInterpolator}
+     */
+    public Interpolator interpolator(int column) {
+        int slot = checkedSlot(column);
+        return new Interpolator() {
+            @Override
+            public double lower() {
+                return read(TIME_SLOT, 0);
+            }
+
+            @Override
+            public double upper() {
+                return read(TIME_SLOT, count - 1);
+            }
+
+            @Override
+            public double lowerVal() {
+                if (count == 0) return 0;
+                return min[slot] != Double.POSITIVE_INFINITY ? min[slot] : -Double.MAX_VALUE;
+            }
+
+            @Override
+            public double upperVal() {
+                if (count == 0) return 0;
+                return nans[slot] == 0 ? max[slot] : Double.MAX_VALUE;
+            }
+
+            @Override
+            public double evaluate(double value) {
+                if (count == 0) {
+                    return 0;
+                }
+                if (count == 1) {
+                    return read(slot, 0);
+                }
+                long i;
+                if (value <= read(TIME_SLOT, 0)) {
+                    i = 0;
+                }
+                else if (value >= read(TIME_SLOT, count - 1)) {
+                    i = count - 2;
+                }
+                else {
+                    //Last index with time <= value
+                    long lo = 0;
+                    long hi = count - 1;
+                    while (hi - lo > 1) {
+                        long m = (lo + hi) >>> 1;
+                        if (read(TIME_SLOT, m) > value) {
+                            hi = m;
+                        }
+                        else {
+                            lo = m;
+                        }
+                    }
+                    i = lo;
+                }
+                double x0 = read(TIME_SLOT, i);
+                double x1 = read(TIME_SLOT, i + 1);
+                double alpha = (value - x0) / (x1 - x0);
+                return alpha * read(slot, i + 1) + (1 - alpha) * read(slot, i);
+            }
+        };
+    }
+
+    /**
+     * Closes the file. Mapped blocks are released by the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        blocks = new MappedByteBuffer[0];
+        channel.close();
+    }
+}
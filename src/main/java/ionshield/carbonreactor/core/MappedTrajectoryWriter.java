@@ -0,0 +1,156 @@
+package ionshield.carbonreactor.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a run into a binary trajectory file through memory-mapped blocks, see {@link MappedTrajectory} for the format.
+ * Only the block being filled is mapped, so runs of any length can be written with constant heap use.
+ * The header (sample count and column extremes) is written at the end of the run and on {@link #close}.
+ * On close the last block is compacted to the samples it holds and the file is truncated after it; the file is complete once closed.
+ */
+public class MappedTrajectoryWriter implements TrajectorySink, Closeable {
+    private final FileChannel channel;
+    private final int blockRows;
+    private final long blockBytes;
+
+    private MappedByteBuffer block;
+    private long blockIndex = -1;
+    private long count = 0;
+    private double heatCapacity = Double.NaN;
+
+    private final double[] row = new double[MappedTrajectory.COLUMNS];
+    private final double[] min = new double[MappedTrajectory.COLUMNS];
+    private final double[] max = new double[MappedTrajectory.COLUMNS];
+    private final long[] nans = new long[MappedTrajectory.COLUMNS];
+
+    public MappedTrajectoryWriter(Path path) throws IOException {
+        this(path, MappedTrajectory.DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * @param blockRows Number of samples per block, each block holds all columns of its samples
+     */
+    public MappedTrajectoryWriter(Path path, int blockRows) throws IOException {
+        if (blockRows < 1) throw new IllegalArgumentException("Block must hold at least one row");
+        this.blockRows = blockRows;
+        this.blockBytes = (long) blockRows * MappedTrajectory.COLUMNS * Double.BYTES;
+        if (blockBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Block must fit in one mapping of at most 2 GB");
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        writeHeader();
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        heatCapacity = kernel.getHeatCapacity();
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        long b = count / blockRows;
+        if (b != blockIndex) {
+            try {
+                block = channel.map(FileChannel.MapMode.READ_WRITE, MappedTrajectory.HEADER_BYTES + b * blockBytes, blockBytes);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            block.order(ByteOrder.LITTLE_ENDIAN);
+            blockIndex = b;
+        }
+        row[MappedTrajectory.TIME_SLOT] = time;
+        for (int i = 0; i < ReactorKernel.SIZE; i++) {
+            row[MappedTrajectory.slot(i)] = state[i];
+        }
+        row[MappedTrajectory.slot(MappedTrajectory.TEMPERATURE)] = state[ReactorKernel.Q] / heatCapacity;
+
+        int r = (int) (count % blockRows);
+        for (int c = 0; c < row.length; c++) {
+            double v = row[c];
+            block.putDouble((c * blockRows + r) * Double.BYTES, v);
+            if (Double.isNaN(v)) {
+                nans[c]++;
+            }
+            else {
+                min[c] = Math.min(min[c], v);
+                max[c] = Math.max(max[c], v);
+            }
+        }
+        count++;
+    }
+
+    @Override
+    public void end() {
+        try {
+            writeHeader();
+            if (block != null) {
+                block.force();
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, MappedTrajectory.HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MappedTrajectory.MAGIC);
+        header.putInt(MappedTrajectory.VERSION);
+        header.putInt(MappedTrajectory.COLUMNS);
+        header.putInt(blockRows);
+        header.putLong(count);
+        header.putDouble(heatCapacity);
+        for (int c = 0; c < MappedTrajectory.COLUMNS; c++) {
+            header.putDouble(min[c]);
+            header.putDouble(max[c]);
+            header.putLong(nans[c]);
+        }
+        header.force();
+    }
+
+    /**
+     * Writes the header, trims the last block and closes the file. Mapped blocks are released by the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            writeHeader();
+            trim();
+        }
+        finally {
+            block = null;
+            channel.close();
+        }
+    }
+
+    private void trim() throws IOException {
+        long end = MappedTrajectory.HEADER_BYTES;
+        if (block != null) {
+            int rows = (int) (count - blockIndex * blockRows);
+            //Columns of the last block move down to a stride of its own row count
+            for (int c = 1; c < MappedTrajectory.COLUMNS; c++) {
+                for (int r = 0; r < rows; r++) {
+                    block.putDouble((c * rows + r) * Double.BYTES, block.getDouble((c * blockRows + r) * Double.BYTES));
+                }
+            }
+            block.force();
+            end += blockIndex * blockBytes + (long) rows * MappedTrajectory.COLUMNS * Double.BYTES;
+        }
+        channel.truncate(end);
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,274 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.ArrayInterpolator;
+import ionshield.carbonreactor.math.Interpolator;
+
+import java.util.Arrays;
+
+/**
+ * Streaming downsampler that keeps the first, last, minimum and maximum sample of every column in each of at most
+ * {@code buckets} equal time buckets, so a line plot with up to that many pixel columns looks the same as one of the full run.
+ * The bucket width is not known in advance: it starts at the first sample interval and doubles, merging neighbouring buckets,
+ * whenever a sample falls past the budget. Memory does not depend on the number of samples.
+ * Columns are {@link ReactorKernel} state constants and {@link ColumnarTrajectory#TEMPERATURE}.
+ */
+public class MinMaxDownsampler implements CopyableSink {
+    private final int buckets;
+    private final int[] columns;
+    private final int[] slots = new int[ReactorKernel.SIZE + 1];
+    private double heatCapacity = Double.NaN;
+
+    private double origin = Double.NaN;
+    private double width = Double.NaN;
+    private int count = 0;
+    private long samples = 0;
+
+    private final boolean[] filled;
+    private final double[] firstT;
+    private final double[] lastT;
+    private final double[][] firstV;
+    private final double[][] lastV;
+    private final double[][] minT;
+    private final double[][] minV;
+    private final double[][] maxT;
+    private final double[][] maxV;
+
+    /**
+     * @param buckets Bucket budget, the resulting series has at most four points per bucket
+     * @param columns Columns to keep, all state components and the temperature if none are given
+     */
+    public MinMaxDownsampler(int buckets, int... columns) {
+        if (buckets < 1) throw new IllegalArgumentException("Bucket budget must be positive");
+        if (columns.length == 0) {
+            columns = new int[ReactorKernel.SIZE + 1];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+        }
+        this.buckets = buckets;
+        this.columns = columns.clone();
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] < 0 || columns[i] >= slots.length) throw new IllegalArgumentException("Unknown column " + columns[i]);
+            slots[columns[i]] = i;
+        }
+
+        int n = columns.length;
+        filled = new boolean[buckets];
+        firstT = new double[buckets];
+        lastT = new double[buckets];
+        firstV = new double[n][buckets];
+        lastV = new double[n][buckets];
+        minT = new double[n][buckets];
+        minV = new double[n][buckets];
+        maxT = new double[n][buckets];
+        maxV = new double[n][buckets];
+    }
+
+    private MinMaxDownsampler(MinMaxDownsampler other) {
+        buckets = other.buckets;
+        columns = other.columns;
+        System.arraycopy(other.slots, 0, slots, 0, slots.length);
+        heatCapacity = other.heatCapacity;
+        origin = other.origin;
+        width = other.width;
+        count = other.count;
+        samples = other.samples;
+        filled = other.filled.clone();
+        firstT = other.firstT.clone();
+        lastT = other.lastT.clone();
+        firstV = copy(other.firstV);
+        lastV = copy(other.lastV);
+        minT = copy(other.minT);
+        minV = copy(other.minV);
+        maxT = copy(other.maxT);
+        maxV = copy(other.maxV);
+    }
+
+    private static double[][] copy(double[][] a) {
+        double[][] res = new double[a.length][];
+        for (int i = 0; i < a.length; i++) {
+            res[i] = a[i].clone();
+        }
+        return res;
+    }
+
+    @Override
+    public MinMaxDownsampler copy() {
+        return new MinMaxDownsampler(this);
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return 128 + buckets * (1L + 2 * Double.BYTES + 6L * Double.BYTES * columns.length);
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        heatCapacity = kernel.getHeatCapacity();
+    }
+
+    @Override
+    public void accept(double t, double[] state) {
+        if (samples == 0) {
+            origin = t;
+        }
+        samples++;
+        int i = index(t);
+        while (i >= buckets) {
+            merge();
+            i = index(t);
+        }
+        i = Math.max(i, count - 1);
+
+        if (!filled[i]) {
+            filled[i] = true;
+            firstT[i] = t;
+            lastT[i] = t;
+            for (int c = 0; c < columns.length; c++) {
+                double v = value(c, state);
+                firstV[c][i] = v;
+                lastV[c][i] = v;
+                minT[c][i] = t;
+                minV[c][i] = v;
+                maxT[c][i] = t;
+                maxV[c][i] = v;
+            }
+        }
+        else {
+            lastT[i] = t;
+            for (int c = 0; c < columns.length; c++) {
+                double v = value(c, state);
+                lastV[c][i] = v;
+                if (v < minV[c][i] || Double.isNaN(minV[c][i])) {
+                    minT[c][i] = t;
+                    minV[c][i] = v;
+                }
+                if (v > maxV[c][i] || Double.isNaN(maxV[c][i])) {
+                    maxT[c][i] = t;
+                    maxV[c][i] = v;
+                }
+            }
+        }
+        count = i + 1;
+    }
+
+    private double value(int slot, double[] state) {
+        return columns[slot] == ColumnarTrajectory.TEMPERATURE ? state[ReactorKernel.Q] / heatCapacity : state[columns[slot]];
+    }
+
+    private int index(double t) {
+        if (Double.isNaN(width)) {
+            if (t <= origin) {
+                return 0;
+            }
+            width = t - origin;
+        }
+        double q = Math.floor((t - origin) / width);
+        return q >= buckets ? buckets : (int) q;
+    }
+
+    /**
+     * Doubles the bucket width, merging bucket pairs
+     */
+    private void merge() {
+        int merged = (count + 1) / 2;
+        for (int j = 0; j < merged; j++) {
+            int a = 2 * j;
+            int b = a + 1;
+            boolean hasA = filled[a];
+            boolean hasB = b < count && filled[b];
+            if (hasA && hasB) {
+                firstT[j] = firstT[a];
+                lastT[j] = lastT[b];
+                for (int c = 0; c < columns.length; c++) {
+                    firstV[c][j] = firstV[c][a];
+                    lastV[c][j] = lastV[c][b];
+                    boolean minB = minV[c][b] < minV[c][a] || Double.isNaN(minV[c][a]);
+                    minT[c][j] = minB ? minT[c][b] : minT[c][a];
+                    minV[c][j] = minB ? minV[c][b] : minV[c][a];
+                    boolean maxB = maxV[c][b] > maxV[c][a] || Double.isNaN(maxV[c][a]);
+                    maxT[c][j] = maxB ? maxT[c][b] : maxT[c][a];
+                    maxV[c][j] = maxB ? maxV[c][b] : maxV[c][a];
+                }
+            }
+            else if (hasA || hasB) {
+                copy(hasA ? a : b, j);
+            }
+            filled[j] = hasA || hasB;
+        }
+        Arrays.fill(filled, merged, buckets, false);
+        count = merged;
+        width *= 2;
+    }
+
+    private void copy(int from, int to) {
+        firstT[to] = firstT[from];
+        lastT[to] = lastT[from];
+        for (int c = 0; c < columns.length; c++) {
+            firstV[c][to] = firstV[c][from];
+            lastV[c][to] = lastV[c][from];
+            minT[c][to] = minT[c][from];
+            minV[c][to] = minV[c][from];
+            maxT[c][to] = maxT[c][from];
+            maxV[c][to] = maxV[c][from];
+        }
+    }
+
+    /**
+     * @return Linear interpolator over the kept samples of the column, in time order
+     */
+    public Interpolator interpolator(int column) {
+        int c = slot(column);
+        double[] x = new double[4 * count];
+        double[] y = new double[4 * count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (!filled[i]) continue;
+            boolean minFirst = minT[c][i] <= maxT[c][i];
+            n = add(x, y, n, firstT[i], firstV[c][i]);
+            n = add(x, y, n, minFirst ? minT[c][i] : maxT[c][i], minFirst ? minV[c][i] : maxV[c][i]);
+            n = add(x, y, n, minFirst ? maxT[c][i] : minT[c][i], minFirst ? maxV[c][i] : minV[c][i]);
+            n = add(x, y, n, lastT[i], lastV[c][i]);
+        }
+        return new ArrayInterpolator(x, y, n);
+    }
+
+    private static int add(double[] x, double[] y, int n, double t, double v) {
+        //The same sample may be first, extreme and last of a bucket at once
+        if (n > 0 && x[n - 1] == t) {
+            return n;
+        }
+        x[n] = t;
+        y[n] = v;
+        return n + 1;
+    }
+
+    public void clear() {
+        Arrays.fill(filled, false);
+        count = 0;
+        samples = 0;
+        origin = Double.NaN;
+        width = Double.NaN;
+    }
+
+    private int slot(int column) {
+        int slot = column >= 0 && column < slots.length ? slots[column] : -1;
+        if (slot < 0) throw new IllegalArgumentException("Column " + column + " is not kept");
+        return slot;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**@return Current bucket width in seconds, NaN before two distinct sample times were seen*/
+    public double getBucketWidth() {
+        return width;
+    }
+
+    /**@return Number of samples accepted since the start or the last clear*/
+    public long getSamples() {
+        return samples;
+    }
+}
@@ -0,0 +1,33 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Passes every sample to several sinks in order
+ */
+public class MultiSink implements TrajectorySink {
+    private final TrajectorySink[] sinks;
+
+    public MultiSink(TrajectorySink... sinks) {
+        this.sinks = sinks.clone();
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        for (TrajectorySink sink : sinks) {
+            sink.begin(kernel);
+        }
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        for (TrajectorySink sink : sinks) {
+            sink.accept(time, state);
+        }
+    }
+
+    @Override
+    public void end() {
+        for (TrajectorySink sink : sinks) {
+            sink.end();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package ionshield.carbonreactor.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Structure-of-arrays batch of independent reactors sharing kinetic and physical parameters of a model reactor.
+ * Each reactor has its own volume, inlet concentrations and inlet temperature.
+ * Rate constants come from the kernel of the model, so the rate table is used if rate-table mode is enabled on it.
+ * Reactors are advanced with explicit Euler, the same scheme as {@link CarbonReactor#tick}, in chunks spread over a ForkJoin pool;
+ * every chunk runs all requested steps over its own index range, so there is no synchronization between steps.
+ * Within a step a chunk computes temperatures, then all rate constants, then the balances, each in a loop without branches.
+ */
+public class ReactorBatch {
+    private static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private final int size;
+
+    private final ReactorKernel kernel;
+    private final double q1;
+    private final double q2;
+    private final double density;
+    private final double ct;
+    private final double volumeRate;
+    private final double flowHeatCapacity;
+
+    private final double[] cCH4;
+    private final double[] cC3H4;
+    private final double[] cO2;
+    private final double[] cC;
+    private final double[] cCO2;
+    private final double[] cCO;
+    private final double[] cH2O;
+    private final double[] cH2;
+    private final double[] q;
+
+    private final double[] volume;
+    private final double[] invTs;
+    private final double[] heatCapacity;
+    private final double[] q1v;
+    private final double[] q2v;
+
+    private final double[] cCH4In;
+    private final double[] cC3H4In;
+    private final double[] cO2In;
+    private final double[] tIn;
+
+    private double time = 0;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public ReactorBatch(CarbonReactor model, int size) {
+        this.size = size;
+
+        kernel = model.getKernel();
+        q1 = model.getQ1();
+        q2 = model.getQ2();
+        density = model.getDensity();
+        ct = model.getCt();
+        volumeRate = model.getVolumeRate();
+        flowHeatCapacity = ct * volumeRate * density;
+
+        cCH4 = new double[size];
+        cC3H4 = new double[size];
+        cO2 = new double[size];
+        cC = new double[size];
+        cCO2 = new double[size];
+        cCO = new double[size];
+        cH2O = new double[size];
+        cH2 = new double[size];
+        q = new double[size];
+
+        volume = new double[size];
+        invTs = new double[size];
+        heatCapacity = new double[size];
+        q1v = new double[size];
+        q2v = new double[size];
+
+        cCH4In = new double[size];
+        cC3H4In = new double[size];
+        cO2In = new double[size];
+        tIn = new double[size];
+    }
+
+    /**
+     * Initializes reactor {@code i} the same way as {@link CarbonReactor#init}; the inlet is kept constant afterwards
+     */
+    public void init(int i, double cCH4In, double cC3H4In, double cO2In, double volume, double t) {
+        this.volume[i] = volume;
+        invTs[i] = 1 / (volume / volumeRate);
+        heatCapacity[i] = ct * volume * density;
+        q1v[i] = q1 * volume;
+        q2v[i] = q2 * volume;
+
+        this.cCH4In[i] = cCH4In;
+        this.cC3H4In[i] = cC3H4In;
+        this.cO2In[i] = cO2In;
+        tIn[i] = t;
+
+        cCH4[i] = cCH4In;
+        cC3H4[i] = cC3H4In;
+        cO2[i] = cO2In;
+        cC[i] = 0;
+        cCO2[i] = 0;
+        cCO[i] = 0;
+        cH2O[i] = 0;
+        cH2[i] = 0;
+        q[i] = t * heatCapacity[i];
+    }
+
+    public void setInlet(int i, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        this.cCH4In[i] = cCH4In;
+        this.cC3H4In[i] = cC3H4In;
+        this.cO2In[i] = cO2In;
+        this.tIn[i] = tIn;
+    }
+
+    /**
+     * Advances every reactor by {@code steps} Euler steps of {@code seconds}
+     */
+    public void run(double seconds, int steps) {
+        if (size <= chunkSize || pool.getParallelism() <= 1) {
+            advance(0, size, seconds, steps);
+        }
+        else {
+            pool.invoke(new StepTask(0, size, seconds, steps));
+        }
+        time += seconds * steps;
+    }
+
+    public void tick(double seconds) {
+        run(seconds, 1);
+    }
+
+    private void advance(int from, int to, double seconds, int steps) {
+        int n = to - from;
+        double[] t = new double[n];
+        double[] invT = new double[n];
+        double[] k1 = new double[n];
+        double[] k2 = new double[n];
+        double[] k3 = new double[n];
+        for (int s = 0; s < steps; s++) {
+            for (int j = 0; j < n; j++) {
+                t[j] = q[from + j] / heatCapacity[from + j];
+                invT[j] = 1 / t[j];
+            }
+            kernel.rates(invT, 0, n, k1, k2, k3);
+            for (int j = 0; j < n; j++) {
+                int i = from + j;
+                double ch4 = cCH4[i];
+                double c3h4 = cC3H4[i];
+                double o2 = cO2[i];
+                double k = invTs[i];
+                double r1 = k1[j] * ch4 * o2;
+                double r2 = k2[j] * c3h4 * o2;
+                double r3 = k3[j] * c3h4;
+
+                cCH4[i] = ch4 + (k * (cCH4In[i] - ch4) - r1) * seconds;
+                cC3H4[i] = c3h4 + (k * (cC3H4In[i] - c3h4) - 2 * r2 - r3) * seconds;
+                cO2[i] = o2 + (k * (cO2In[i] - o2) - 2 * r1 - 5 * r2) * seconds;
+                cC[i] += (-k * cC[i] + 3 * r3) * seconds;
+                cCO2[i] += (-k * cCO2[i] + r1) * seconds;
+                cCO[i] += (-k * cCO[i] + 6 * r2) * seconds;
+                cH2O[i] += (-k * cH2O[i] + 2 * r1 + 4 * r2) * seconds;
+                cH2[i] += (-k * cH2[i] + 2 * r3) * seconds;
+                q[i] += (flowHeatCapacity * (tIn[i] - t[j]) + q1v[i] * r1 + q2v[i] * r2) * seconds;
+            }
+        }
+    }
+
+    private class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final double seconds;
+        private final int steps;
+
+        StepTask(int from, int to, double seconds, int steps) {
+            this.from = from;
+            this.to = to;
+            this.seconds = seconds;
+            this.steps = steps;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                advance(from, to, seconds, steps);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new StepTask(from, mid, seconds, steps), new StepTask(mid, to, seconds, steps));
+        }
+    }
+
+    /**
+     * Copies the state of reactor {@code i} into {@code out}, indexed by {@link ReactorKernel} constants
+     */
+    public void getState(int i, double[] out) {
+        out[ReactorKernel.CH4] = cCH4[i];
+        out[ReactorKernel.C3H4] = cC3H4[i];
+        out[ReactorKernel.O2] = cO2[i];
+        out[ReactorKernel.C] = cC[i];
+        out[ReactorKernel.CO2] = cCO2[i];
+        out[ReactorKernel.CO] = cCO[i];
+        out[ReactorKernel.H2O] = cH2O[i];
+        out[ReactorKernel.H2] = cH2[i];
+        out[ReactorKernel.Q] = q[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public double getVolume(int i) {
+        return volume[i];
+    }
+
+    public double gettIn(int i) {
+        return tIn[i];
+    }
+
+    public double getTemperature(int i) {
+        return q[i] / heatCapacity[i];
+    }
+
+    public double getcCH4(int i) {
+        return cCH4[i];
+    }
+
+    public double getcC3H4(int i) {
+        return cC3H4[i];
+    }
+
+    public double getcO2(int i) {
+        return cO2[i];
+    }
+
+    public double getcC(int i) {
+        return cC[i];
+    }
+
+    public double getcCO2(int i) {
+        return cCO2[i];
+    }
+
+    public double getcCO(int i) {
+        return cCO[i];
+    }
+
+    public double getcH2O(int i) {
+        return cH2O[i];
+    }
+
+    public double getcH2(int i) {
+        return cH2[i];
+    }
+
+    public double getQ(int i) {
+        return q[i];
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
@@ -0,0 +1,261 @@
+package ionshield.carbonreactor.core;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Train of reactors in series: the outlet of every stage, all species and its temperature, is the feed of the next one,
+ * see {@link CarbonReactor#tick(double, double[])}. Every stage ticks on the outlet its upstream stage had before the same tick.
+ * <p>
+ * Stages are split into contiguous groups run as a pipeline, one thread per group. A group passes the outlets of a block
+ * of ticks downstream through a bounded lock-free queue, so while it works on one block the next group works on the one
+ * before. Emptied blocks go back through a second queue and are reused. Results do not depend on the number of threads.
+ */
+public class ReactorCascade {
+    private final CarbonReactor[] stages;
+
+    private int threads;
+    private int blockSize = 256;
+    private int queueCapacity = 4;
+
+    public ReactorCascade(CarbonReactor... stages) {
+        if (stages.length == 0) throw new IllegalArgumentException("Cascade must have at least one stage");
+        this.stages = stages.clone();
+        threads = Math.min(stages.length, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs {@code steps} ticks of all stages
+     * @param cCH4In CH4 inlet concentration of the first stage by tick index
+     * @param sink Sink of the last stage
+     */
+    public void run(double seconds, int steps, IntToDoubleFunction cCH4In, double cC3H4In, double cO2In, double tIn, TrajectorySink sink) {
+        TrajectorySink[] sinks = new TrajectorySink[stages.length];
+        sinks[stages.length - 1] = sink;
+        run(seconds, steps, cCH4In, cC3H4In, cO2In, tIn, sinks);
+    }
+
+    /**
+     * Runs {@code steps} ticks of all stages. Every stage passes its initial state and the state after every tick to its sink,
+     * on the thread of its group.
+     * @param sinks Sink of every stage, null for none
+     */
+    public void run(double seconds, int steps, IntToDoubleFunction cCH4In, double cC3H4In, double cO2In, double tIn, TrajectorySink[] sinks) {
+        if (sinks.length != stages.length) throw new IllegalArgumentException("Expected a sink for each of " + stages.length + " stages");
+        int groups = Math.min(threads, stages.length);
+        Pipeline pipeline = new Pipeline(seconds, steps, cCH4In, cC3H4In, cO2In, tIn, sinks, groups);
+
+        Thread[] workers = new Thread[groups - 1];
+        for (int g = 0; g < workers.length; g++) {
+            int group = g;
+            workers[g] = new Thread(() -> pipeline.runGuarded(group), "cascade-" + g);
+            workers[g].setDaemon(true);
+            workers[g].start();
+        }
+        pipeline.runGuarded(groups - 1);
+
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                    pipeline.failure.compareAndSet(null, e);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable failure = pipeline.failure.get();
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new IllegalStateException("Cascade run failed", failure);
+    }
+
+    private class Pipeline {
+        private final double seconds;
+        private final int steps;
+        private final IntToDoubleFunction cCH4In;
+        private final double cC3H4In;
+        private final double cO2In;
+        private final double tIn;
+        private final TrajectorySink[] sinks;
+        private final int groups;
+
+        //Queue g carries blocks from group g to group g + 1
+        private final SpscQueue<double[]>[] full;
+        private final SpscQueue<double[]>[] empty;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Pipeline(double seconds, int steps, IntToDoubleFunction cCH4In, double cC3H4In, double cO2In, double tIn, TrajectorySink[] sinks, int groups) {
+            this.seconds = seconds;
+            this.steps = steps;
+            this.cCH4In = cCH4In;
+            this.cC3H4In = cC3H4In;
+            this.cO2In = cO2In;
+            this.tIn = tIn;
+            this.sinks = sinks;
+            this.groups = groups;
+            full = new SpscQueue[groups - 1];
+            empty = new SpscQueue[groups - 1];
+            for (int g = 0; g < groups - 1; g++) {
+                full[g] = new SpscQueue<>(queueCapacity);
+                empty[g] = new SpscQueue<>(queueCapacity);
+                for (int i = 0; i < queueCapacity; i++) {
+                    empty[g].offer(new double[blockSize * ReactorKernel.SIZE]);
+                }
+            }
+        }
+
+        void runGuarded(int group) {
+            try {
+                run(group);
+            }
+            catch (CancellationException e) {
+                //Another group failed
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private void run(int group) {
+            int from = group * stages.length / groups;
+            int to = (group + 1) * stages.length / groups;
+            int size = ReactorKernel.SIZE;
+            double[] feed = ReactorKernel.newState();
+            double[] row = ReactorKernel.newState();
+            double[][] scratch = {new double[blockSize * size], new double[blockSize * size]};
+
+            for (int k = from; k < to; k++) {
+                if (sinks[k] != null) {
+                    sinks[k].begin(stages[k].getKernel());
+                    sinks[k].accept(stages[k].getTime(), stages[k].getState());
+                }
+            }
+            for (int done = 0; done < steps; done += blockSize) {
+                int rows = Math.min(blockSize, steps - done);
+                double[] input = group > 0 ? take(full[group - 1]) : null;
+                int next = 0;
+                for (int k = from; k < to; k++) {
+                    CarbonReactor reactor = stages[k];
+                    boolean last = k == to - 1;
+                    double[] output = null;
+                    if (!last) {
+                        output = scratch[next];
+                        next ^= 1;
+                    }
+                    else if (group < groups - 1) {
+                        output = take(empty[group]);
+                    }
+                    for (int r = 0; r < rows; r++) {
+                        if (output != null) {
+                            System.arraycopy(reactor.outlet(row), 0, output, r * size, size);
+                        }
+                        if (input != null) {
+                            System.arraycopy(input, r * size, feed, 0, size);
+                        }
+                        else {
+                            Arrays.fill(feed, 0);
+                            feed[ReactorKernel.CH4] = cCH4In.applyAsDouble(done + r);
+                            feed[ReactorKernel.C3H4] = cC3H4In;
+                            feed[ReactorKernel.O2] = cO2In;
+                            feed[ReactorKernel.Q] = tIn;
+                        }
+                        reactor.tick(seconds, feed);
+                        if (sinks[k] != null) {
+                            sinks[k].accept(reactor.getTime(), reactor.getState());
+                        }
+                    }
+                    if (k == from && group > 0) {
+                        put(empty[group - 1], input);
+                    }
+                    input = output;
+                }
+                if (group < groups - 1) {
+                    put(full[group], input);
+                }
+            }
+            for (int k = from; k < to; k++) {
+                if (sinks[k] != null) {
+                    sinks[k].end();
+                }
+            }
+        }
+
+        private double[] take(SpscQueue<double[]> queue) {
+            double[] res;
+            for (int spins = 0; (res = queue.poll()) == null; spins++) {
+                idle(spins);
+            }
+            return res;
+        }
+
+        private void put(SpscQueue<double[]> queue, double[] block) {
+            for (int spins = 0; !queue.offer(block); spins++) {
+                idle(spins);
+            }
+        }
+
+        /**
+         * Spins briefly, then yields, then parks, so a stalled pipeline does not burn cores
+         */
+        private void idle(int spins) {
+            if (failure.get() != null) throw new CancellationException();
+            if (spins < 64) {
+                return;
+            }
+            if (spins < 128) {
+                Thread.yield();
+            }
+            else {
+                LockSupport.parkNanos(10000);
+            }
+        }
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public CarbonReactor getStage(int i) {
+        return stages[i];
+    }
+
+    /**@return Largest number of threads, each running a contiguous group of stages*/
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+        this.threads = threads;
+    }
+
+    /**@return Number of ticks handed downstream at once*/
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be positive");
+        this.blockSize = blockSize;
+    }
+
+    /**@return Number of blocks in flight between two groups*/
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be positive");
+        this.queueCapacity = queueCapacity;
+    }
+}
@@ -0,0 +1,14 @@
+package ionshield.carbonreactor.core;
+
+public interface ReactorIntegrator {
+    /**
+     * Advances {@code state} in place by {@code duration} seconds under constant inlet conditions
+     */
+    void advance(ReactorKernel kernel, double[] state, double duration, double cCH4In, double cC3H4In, double cO2In, double tIn);
+
+    long getAcceptedSteps();
+    long getRejectedSteps();
+    /**@return Number of right-hand side evaluations since the last reset*/
+    long getEvaluations();
+    void resetStatistics();
+}
@@ -0,0 +1,333 @@
+package ionshield.carbonreactor.core;
+
+import java.util.Arrays;
+
+/**
+ * Immutable block of precomputed reactor coefficients together with allocation-free
+ * derivative and step functions operating on a primitive state vector.
+ * State layout is given by the index constants ({@link #CH4} .. {@link #H2}, {@link #Q}).
+ */
+public final class ReactorKernel {
+    public static final int CH4 = 0;
+    public static final int C3H4 = 1;
+    public static final int O2 = 2;
+    public static final int C = 3;
+    public static final int CO2 = 4;
+    public static final int CO = 5;
+    public static final int H2O = 6;
+    public static final int H2 = 7;
+    public static final int Q = 8;
+    public static final int SIZE = 9;
+
+    public static final int P_VOLUME = 0;
+    public static final int P_TIN = 1;
+    public static final int P_CH4_IN = 2;
+    public static final int P_C3H4_IN = 3;
+    public static final int P_O2_IN = 4;
+    public static final int PARAMETERS = 5;
+
+    private final double a1;
+    private final double a2;
+    private final double a3;
+    private final double e1r;
+    private final double e2r;
+    private final double e3r;
+
+    private final double volume;
+    private final double invTs;
+    private final double heatCapacity;
+    private final double flowHeatCapacity;
+    private final double q1v;
+    private final double q2v;
+
+    private final ArrheniusTable rateTable;
+
+    public ReactorKernel(double r, double a1, double a2, double a3, double e1, double e2, double e3, double q1, double q2, double density, double ct, double volumeRate, double volume) {
+        this(r, a1, a2, a3, e1, e2, e3, q1, q2, density, ct, volumeRate, volume, null);
+    }
+
+    /**
+     * @param rateTable Optional table of the three rate constants, built for the same a and E / R; null to always evaluate exactly
+     */
+    public ReactorKernel(double r, double a1, double a2, double a3, double e1, double e2, double e3, double q1, double q2, double density, double ct, double volumeRate, double volume, ArrheniusTable rateTable) {
+        this.a1 = a1;
+        this.a2 = a2;
+        this.a3 = a3;
+        this.e1r = e1 / r;
+        this.e2r = e2 / r;
+        this.e3r = e3 / r;
+
+        this.volume = volume;
+        this.invTs = 1 / (volume / volumeRate);
+        this.heatCapacity = ct * volume * density;
+        this.flowHeatCapacity = ct * volumeRate * density;
+        this.q1v = q1 * volume;
+        this.q2v = q2 * volume;
+        this.rateTable = rateTable;
+    }
+
+    public static double[] newState() {
+        return new double[SIZE];
+    }
+
+    public void init(double[] state, double cCH4In, double cC3H4In, double cO2In, double t) {
+        state[CH4] = cCH4In;
+        state[C3H4] = cC3H4In;
+        state[O2] = cO2In;
+        state[C] = 0;
+        state[CO2] = 0;
+        state[CO] = 0;
+        state[H2O] = 0;
+        state[H2] = 0;
+        state[Q] = t * heatCapacity;
+    }
+
+    public double temperature(double[] state) {
+        return state[Q] / heatCapacity;
+    }
+
+    /**
+     * Writes time derivatives of {@code state} into {@code out}. {@code out} may be the same array as {@code state}.
+     */
+    public void derivatives(double[] state, double cCH4In, double cC3H4In, double cO2In, double tIn, double[] out) {
+        double cCH4 = state[CH4];
+        double cC3H4 = state[C3H4];
+        double cO2 = state[O2];
+        double t = state[Q] / heatCapacity;
+        double invT = 1 / t;
+
+        double k1 = rate1(invT);
+        double k2 = rate2(invT);
+        double k3 = rate3(invT);
+        double r1 = k1 * cCH4 * cO2;
+        double r2 = k2 * cC3H4 * cO2;
+        double r3 = k3 * cC3H4;
+
+        double dcC = -invTs * state[C] + 3 * r3;
+        double dcCO2 = -invTs * state[CO2] + r1;
+        double dcCO = -invTs * state[CO] + 6 * r2;
+        double dcH2O = -invTs * state[H2O] + 2 * r1 + 4 * r2;
+        double dcH2 = -invTs * state[H2] + 2 * r3;
+
+        out[CH4] = invTs * (cCH4In - cCH4) - r1;
+        out[C3H4] = invTs * (cC3H4In - cC3H4) - 2 * r2 - r3;
+        out[O2] = invTs * (cO2In - cO2) - 2 * r1 - 5 * r2;
+        out[C] = dcC;
+        out[CO2] = dcCO2;
+        out[CO] = dcCO;
+        out[H2O] = dcH2O;
+        out[H2] = dcH2;
+        out[Q] = flowHeatCapacity * (tIn - t) + q1v * r1 + q2v * r2;
+    }
+
+    /**
+     * Explicit Euler step of {@code seconds}. Writes the new state into {@code out}, which may be the same array as {@code state}.
+     */
+    public void step(double[] state, double seconds, double cCH4In, double cC3H4In, double cO2In, double tIn, double[] out) {
+        step(state, seconds, cCH4In, cC3H4In, cO2In, 0, 0, 0, 0, 0, tIn, out);
+    }
+
+    /**
+     * Explicit Euler step fed by another reactor: {@code feed} holds inlet concentrations of all species by state constants
+     * and the inlet temperature at {@link #Q}, so products in the feed flow in too. Same as
+     * {@link #step(double[], double, double, double, double, double, double[])} for a feed without products.
+     */
+    public void step(double[] state, double seconds, double[] feed, double[] out) {
+        step(state, seconds, feed[CH4], feed[C3H4], feed[O2], feed[C], feed[CO2], feed[CO], feed[H2O], feed[H2], feed[Q], out);
+    }
+
+    //A zero product inlet gives invTs * (0 - c) == -invTs * c, so both public steps share this one
+    private void step(double[] state, double seconds, double cCH4In, double cC3H4In, double cO2In,
+                      double cCIn, double cCO2In, double cCOIn, double cH2OIn, double cH2In, double tIn, double[] out) {
+        double cCH4 = state[CH4];
+        double cC3H4 = state[C3H4];
+        double cO2 = state[O2];
+        double q = state[Q];
+        double t = q / heatCapacity;
+        double invT = 1 / t;
+
+        double k1 = rate1(invT);
+        double k2 = rate2(invT);
+        double k3 = rate3(invT);
+        double r1 = k1 * cCH4 * cO2;
+        double r2 = k2 * cC3H4 * cO2;
+        double r3 = k3 * cC3H4;
+
+        double cC = state[C];
+        double cCO2 = state[CO2];
+        double cCO = state[CO];
+        double cH2O = state[H2O];
+        double cH2 = state[H2];
+
+        out[CH4] = cCH4 + (invTs * (cCH4In - cCH4) - r1) * seconds;
+        out[C3H4] = cC3H4 + (invTs * (cC3H4In - cC3H4) - 2 * r2 - r3) * seconds;
+        out[O2] = cO2 + (invTs * (cO2In - cO2) - 2 * r1 - 5 * r2) * seconds;
+        out[C] = cC + (invTs * (cCIn - cC) + 3 * r3) * seconds;
+        out[CO2] = cCO2 + (invTs * (cCO2In - cCO2) + r1) * seconds;
+        out[CO] = cCO + (invTs * (cCOIn - cCO) + 6 * r2) * seconds;
+        out[H2O] = cH2O + (invTs * (cH2OIn - cH2O) + 2 * r1 + 4 * r2) * seconds;
+        out[H2] = cH2 + (invTs * (cH2In - cH2) + 2 * r3) * seconds;
+        out[Q] = q + (flowHeatCapacity * (tIn - t) + q1v * r1 + q2v * r2) * seconds;
+    }
+
+    /**
+     * Writes the analytic Jacobian of {@link #derivatives} with respect to the state into {@code out}
+     * as a {@link #SIZE} x {@link #SIZE} row-major matrix. Inlet concentrations do not enter the Jacobian.
+     */
+    public void jacobian(double[] state, double[] out) {
+        double cCH4 = state[CH4];
+        double cC3H4 = state[C3H4];
+        double cO2 = state[O2];
+        double t = state[Q] / heatCapacity;
+        double invT = 1 / t;
+
+        double k1 = rate1(invT);
+        double k2 = rate2(invT);
+        double k3 = rate3(invT);
+        double dTdQ = invT * invT / heatCapacity;
+
+        //Partial derivatives of r1, r2, r3
+        double r1CH4 = k1 * cO2;
+        double r1O2 = k1 * cCH4;
+        double r1Q = k1 * e1r * dTdQ * cCH4 * cO2;
+        double r2C3H4 = k2 * cO2;
+        double r2O2 = k2 * cC3H4;
+        double r2Q = k2 * e2r * dTdQ * cC3H4 * cO2;
+        double r3C3H4 = k3;
+        double r3Q = k3 * e3r * dTdQ * cC3H4;
+
+        Arrays.fill(out, 0, SIZE * SIZE, 0);
+        for (int i = 0; i < Q; i++) {
+            out[i * SIZE + i] = -invTs;
+        }
+        out[Q * SIZE + Q] = -flowHeatCapacity / heatCapacity;
+
+        addRates(out, CH4, -1, 0, 0, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, C3H4, 0, -2, -1, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, O2, -2, -5, 0, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, C, 0, 0, 3, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, CO2, 1, 0, 0, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, CO, 0, 6, 0, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, H2O, 2, 4, 0, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, H2, 0, 0, 2, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+        addRates(out, Q, q1v, q2v, 0, r1CH4, r1O2, r1Q, r2C3H4, r2O2, r2Q, r3C3H4, r3Q);
+    }
+
+    /**
+     * Writes the derivatives of {@link #derivatives} with respect to the parameters ({@link #P_VOLUME} .. {@link #P_O2_IN})
+     * into {@code out} as a {@link #SIZE} x {@link #PARAMETERS} row-major matrix
+     */
+    public void parameterJacobian(double[] state, double cCH4In, double cC3H4In, double cO2In, double tIn, double[] out) {
+        double cCH4 = state[CH4];
+        double cC3H4 = state[C3H4];
+        double cO2 = state[O2];
+        double t = state[Q] / heatCapacity;
+        double invT = 1 / t;
+        double invV = 1 / volume;
+
+        double k1 = rate1(invT);
+        double k2 = rate2(invT);
+        double k3 = rate3(invT);
+        double r1 = k1 * cCH4 * cO2;
+        double r2 = k2 * cC3H4 * cO2;
+        double r3 = k3 * cC3H4;
+
+        //Volume enters through the residence time, the heat capacity (T = q / (ct * density * V)) and the reaction heat
+        double dInvTs = -invTs * invV;
+        double dT = -t * invV;
+        double r1V = r1 * e1r * invT * invT * dT;
+        double r2V = r2 * e2r * invT * invT * dT;
+        double r3V = r3 * e3r * invT * invT * dT;
+
+        Arrays.fill(out, 0, SIZE * PARAMETERS, 0);
+        out[CH4 * PARAMETERS + P_VOLUME] = dInvTs * (cCH4In - cCH4) - r1V;
+        out[C3H4 * PARAMETERS + P_VOLUME] = dInvTs * (cC3H4In - cC3H4) - 2 * r2V - r3V;
+        out[O2 * PARAMETERS + P_VOLUME] = dInvTs * (cO2In - cO2) - 2 * r1V - 5 * r2V;
+        out[C * PARAMETERS + P_VOLUME] = -dInvTs * state[C] + 3 * r3V;
+        out[CO2 * PARAMETERS + P_VOLUME] = -dInvTs * state[CO2] + r1V;
+        out[CO * PARAMETERS + P_VOLUME] = -dInvTs * state[CO] + 6 * r2V;
+        out[H2O * PARAMETERS + P_VOLUME] = -dInvTs * state[H2O] + 2 * r1V + 4 * r2V;
+        out[H2 * PARAMETERS + P_VOLUME] = -dInvTs * state[H2] + 2 * r3V;
+        out[Q * PARAMETERS + P_VOLUME] = -flowHeatCapacity * dT + q1v * invV * r1 + q1v * r1V + q2v * invV * r2 + q2v * r2V;
+
+        out[Q * PARAMETERS + P_TIN] = flowHeatCapacity;
+        out[CH4 * PARAMETERS + P_CH4_IN] = invTs;
+        out[C3H4 * PARAMETERS + P_C3H4_IN] = invTs;
+        out[O2 * PARAMETERS + P_O2_IN] = invTs;
+    }
+
+    /**
+     * Writes the derivatives of a state produced by {@link #init} with the inlet composition at the inlet temperature
+     * with respect to the parameters into {@code out} ({@link #SIZE} x {@link #PARAMETERS}, row-major)
+     */
+    public void initialSensitivity(double[] state, double[] out) {
+        Arrays.fill(out, 0, SIZE * PARAMETERS, 0);
+        out[CH4 * PARAMETERS + P_CH4_IN] = 1;
+        out[C3H4 * PARAMETERS + P_C3H4_IN] = 1;
+        out[O2 * PARAMETERS + P_O2_IN] = 1;
+        out[Q * PARAMETERS + P_TIN] = heatCapacity;
+        out[Q * PARAMETERS + P_VOLUME] = state[Q] / volume;
+    }
+
+    private static void addRates(double[] out, int row, double n1, double n2, double n3, double r1CH4, double r1O2, double r1Q, double r2C3H4, double r2O2, double r2Q, double r3C3H4, double r3Q) {
+        int base = row * SIZE;
+        out[base + CH4] += n1 * r1CH4;
+        out[base + O2] += n1 * r1O2 + n2 * r2O2;
+        out[base + C3H4] += n2 * r2C3H4 + n3 * r3C3H4;
+        out[base + Q] += n1 * r1Q + n2 * r2Q + n3 * r3Q;
+    }
+
+    /**
+     * Writes the three rate constants at every inverse temperature in {@code invT[from, to)} into the same positions of
+     * {@code k1}, {@code k2} and {@code k3}. The rate-table check is made once per call, not per element
+     */
+    void rates(double[] invT, int from, int to, double[] k1, double[] k2, double[] k3) {
+        if (rateTable != null) {
+            for (int i = from; i < to; i++) {
+                k1[i] = rateTable.rate(0, invT[i]);
+                k2[i] = rateTable.rate(1, invT[i]);
+                k3[i] = rateTable.rate(2, invT[i]);
+            }
+        }
+        else {
+            for (int i = from; i < to; i++) {
+                k1[i] = a1 * Math.exp(-e1r * invT[i]);
+                k2[i] = a2 * Math.exp(-e2r * invT[i]);
+                k3[i] = a3 * Math.exp(-e3r * invT[i]);
+            }
+        }
+    }
+
+    private double rate1(double invT) {
+        return rateTable != null ? rateTable.rate(0, invT) : a1 * Math.exp(-e1r * invT);
+    }
+
+    private double rate2(double invT) {
+        return rateTable != null ? rateTable.rate(1, invT) : a2 * Math.exp(-e2r * invT);
+    }
+
+    private double rate3(double invT) {
+        return rateTable != null ? rateTable.rate(2, invT) : a3 * Math.exp(-e3r * invT);
+    }
+
+    public ArrheniusTable getRateTable() {
+        return rateTable;
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    public double getHeatCapacity() {
+        return heatCapacity;
+    }
+
+    public double getResidenceTime() {
+        return 1 / invTs;
+    }
+
+    /**@return Heat capacity of the volume flow, ct * volumeRate * density*/
+    public double getFlowHeatCapacity() {
+        return flowHeatCapacity;
+    }
+}
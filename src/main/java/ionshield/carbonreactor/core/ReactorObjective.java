@@ -0,0 +1,103 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.DifferentiableFunction;
+
+import java.util.Arrays;
+
+/**
+ * Optimization objective over (volume, inlet temperature): the negated carbon concentration of the reactor.
+ * The steady state is used when Newton converges, with its gradient from the implicit function theorem;
+ * otherwise the transient run from the cold reactor over the horizon is integrated with forward sensitivities.
+ * Either way value and gradient come from a single pass. Not thread-safe.
+ */
+public class ReactorObjective implements DifferentiableFunction {
+    private static final int P = ReactorKernel.PARAMETERS;
+    private static final int CHUNKS = 1000;
+
+    private final double cCH4In;
+    private final double cC3H4In;
+    private final double cO2In;
+    private final double horizon;
+
+    private final SteadyStateSolver steadyStateSolver = new SteadyStateSolver();
+    private final RosenbrockIntegrator integrator = new RosenbrockIntegrator();
+    private final double[] state = ReactorKernel.newState();
+    private final double[] rates = ReactorKernel.newState();
+    private final double[] sensitivity = new double[ReactorKernel.SIZE * P];
+    private final double[] lastSensitivity = new double[P];
+    private boolean lastSteady;
+
+    public ReactorObjective(double cCH4In, double cC3H4In, double cO2In, double horizon) {
+        this.cCH4In = cCH4In;
+        this.cC3H4In = cC3H4In;
+        this.cO2In = cO2In;
+        this.horizon = horizon;
+    }
+
+    @Override
+    public double evaluate(double volume, double tIn, double[] gradient) {
+        boolean withGradient = gradient != null;
+        lastSteady = steadyStateSolver.solve(volume, cCH4In, cC3H4In, cO2In, tIn, state);
+        if (lastSteady) {
+            if (withGradient && !steadyStateSolver.sensitivity(state, volume, cCH4In, cC3H4In, cO2In, tIn, sensitivity)) {
+                Arrays.fill(sensitivity, Double.NaN);
+            }
+        }
+        else {
+            CarbonReactor rc = new CarbonReactor();
+            rc.init(cCH4In, cC3H4In, cO2In, volume, tIn);
+            integrator.reset();
+            if (withGradient) {
+                integrator.initSensitivity(rc.getKernel(), rc.getState());
+            }
+            else {
+                integrator.setSensitivityEnabled(false);
+            }
+            SteadyStateMonitor monitor = new SteadyStateMonitor(1e-8, 10);
+            for (int i = 0; i < CHUNKS; i++) {
+                rc.advance(horizon / CHUNKS, cCH4In, cC3H4In, cO2In, tIn, integrator);
+                rc.getKernel().derivatives(rc.getState(), cCH4In, cC3H4In, cO2In, tIn, rates);
+                if (monitor.update(rates, rc.getKernel().getHeatCapacity())) {
+                    break;
+                }
+            }
+            System.arraycopy(rc.getState(), 0, state, 0, state.length);
+            if (withGradient) {
+                System.arraycopy(integrator.getSensitivity(), 0, sensitivity, 0, sensitivity.length);
+            }
+        }
+
+        if (withGradient) {
+            for (int p = 0; p < P; p++) {
+                lastSensitivity[p] = sensitivity[ReactorKernel.C * P + p];
+            }
+            gradient[0] = -lastSensitivity[ReactorKernel.P_VOLUME];
+            gradient[1] = -lastSensitivity[ReactorKernel.P_TIN];
+        }
+        return -state[ReactorKernel.C];
+    }
+
+    /**
+     * @return Derivatives of the carbon concentration by all {@link ReactorKernel} parameters from the last evaluation with gradient
+     */
+    public double[] getLastSensitivity() {
+        return lastSensitivity;
+    }
+
+    /**@return True if the last evaluation used the steady state*/
+    public boolean isLastSteady() {
+        return lastSteady;
+    }
+
+    public SteadyStateSolver getSteadyStateSolver() {
+        return steadyStateSolver;
+    }
+
+    public RosenbrockIntegrator getIntegrator() {
+        return integrator;
+    }
+
+    public double getHorizon() {
+        return horizon;
+    }
+}
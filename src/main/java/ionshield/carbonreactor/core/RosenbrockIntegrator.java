@@ -0,0 +1,270 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.DenseLU;
+
+/**
+ * Linearly implicit Rosenbrock 2(3) pair (the scheme of MATLAB's ode23s) for stiff runs.
+ * Uses the analytic Jacobian of {@link ReactorKernel} and one dense LU factorization per step attempt.
+ * Optionally carries forward sensitivities of the state to the {@link ReactorKernel} parameters: they are advanced after every
+ * accepted step by the same Rosenbrock formulas applied to the sensitivity equations dS/dt = J * S + df/dp,
+ * reusing the factorized iteration matrix (staggered direct method).
+ * Scratch space is allocated once per instance, so an instance must not be shared between threads.
+ */
+public class RosenbrockIntegrator extends AbstractIntegrator {
+    private static final double D = 1 / (2 + Math.sqrt(2));
+    private static final double E32 = 6 + Math.sqrt(2);
+
+    private static final double SAFETY = 0.8;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 5;
+
+    private double relativeTolerance = 1e-6;
+    private double absoluteTolerance = 1e-9;
+    private double minStep = 1e-12;
+    private double maxStep = Double.POSITIVE_INFINITY;
+    private double initialStep = 0;
+
+    private double lastStep = 0;
+    private long factorizations;
+
+    private final double[] jacobian = new double[ReactorKernel.SIZE * ReactorKernel.SIZE];
+    private final double[] w = new double[ReactorKernel.SIZE * ReactorKernel.SIZE];
+    private final int[] pivot = new int[ReactorKernel.SIZE];
+    private final double[] f0 = new double[ReactorKernel.SIZE];
+    private final double[] f1 = new double[ReactorKernel.SIZE];
+    private final double[] f2 = new double[ReactorKernel.SIZE];
+    private final double[] k1 = new double[ReactorKernel.SIZE];
+    private final double[] k2 = new double[ReactorKernel.SIZE];
+    private final double[] k3 = new double[ReactorKernel.SIZE];
+    private final double[] tmp = new double[ReactorKernel.SIZE];
+    private final double[] next = new double[ReactorKernel.SIZE];
+
+    private static final int P = ReactorKernel.PARAMETERS;
+    private boolean sensitivityEnabled = false;
+    private final double[] sensitivity = new double[ReactorKernel.SIZE * P];
+    private final double[] parameterJacobian = new double[ReactorKernel.SIZE * P];
+    private final double[] halfJacobian = new double[ReactorKernel.SIZE * ReactorKernel.SIZE];
+    private final double[] ks1 = new double[ReactorKernel.SIZE * P];
+    private final double[] column = new double[ReactorKernel.SIZE];
+    private final double[] halfColumn = new double[ReactorKernel.SIZE];
+
+    public RosenbrockIntegrator() {
+    }
+
+    public RosenbrockIntegrator(double relativeTolerance, double absoluteTolerance) {
+        setRelativeTolerance(relativeTolerance);
+        setAbsoluteTolerance(absoluteTolerance);
+    }
+
+    @Override
+    public void advance(ReactorKernel kernel, double[] state, double duration, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        if (duration <= 0) return;
+        int n = ReactorKernel.SIZE;
+
+        kernel.derivatives(state, cCH4In, cC3H4In, cO2In, tIn, f0);
+        countEvaluations(1);
+        kernel.jacobian(state, jacobian);
+
+        double h = lastStep > 0 ? lastStep : (initialStep > 0 ? initialStep : Math.min(duration, 1e-3));
+        double elapsed = 0;
+        boolean rejectedBefore = false;
+
+        while (elapsed < duration) {
+            double remaining = duration - elapsed;
+            h = Math.min(Math.min(h, maxStep), remaining);
+            boolean last = h >= remaining;
+
+            double hd = h * D;
+            for (int i = 0; i < n * n; i++) {
+                w[i] = -hd * jacobian[i];
+            }
+            for (int i = 0; i < n; i++) {
+                w[i * n + i] += 1;
+            }
+            factorizations++;
+            if (!DenseLU.decompose(w, n, pivot)) {
+                countRejected();
+                h *= MIN_FACTOR;
+                rejectedBefore = true;
+                checkStep(h);
+                continue;
+            }
+
+            System.arraycopy(f0, 0, k1, 0, n);
+            DenseLU.solve(w, n, pivot, k1);
+
+            for (int i = 0; i < n; i++) tmp[i] = state[i] + 0.5 * h * k1[i];
+            kernel.derivatives(tmp, cCH4In, cC3H4In, cO2In, tIn, f1);
+
+            for (int i = 0; i < n; i++) k2[i] = f1[i] - k1[i];
+            DenseLU.solve(w, n, pivot, k2);
+            for (int i = 0; i < n; i++) k2[i] += k1[i];
+
+            for (int i = 0; i < n; i++) next[i] = state[i] + h * k2[i];
+            kernel.derivatives(next, cCH4In, cC3H4In, cO2In, tIn, f2);
+
+            for (int i = 0; i < n; i++) k3[i] = f2[i] - E32 * (k2[i] - f1[i]) - 2 * (k1[i] - f0[i]);
+            DenseLU.solve(w, n, pivot, k3);
+            countEvaluations(2);
+
+            double err = 0;
+            for (int i = 0; i < n; i++) {
+                double sc = absoluteTolerance + relativeTolerance * Math.max(Math.abs(state[i]), Math.abs(next[i]));
+                double e = h / 6 * (k1[i] - 2 * k2[i] + k3[i]) / sc;
+                err += e * e;
+            }
+            err = Math.sqrt(err / n);
+
+            if (err <= 1 && !Double.isNaN(err)) {
+                if (sensitivityEnabled) {
+                    advanceSensitivity(kernel, state, h, cCH4In, cC3H4In, cO2In, tIn);
+                }
+                System.arraycopy(next, 0, state, 0, n);
+                System.arraycopy(f2, 0, f0, 0, n);
+                elapsed = last ? duration : elapsed + h;
+                countAccepted();
+
+                double factor = err == 0 ? MAX_FACTOR : Math.min(MAX_FACTOR, Math.max(MIN_FACTOR, SAFETY * Math.pow(err, -1.0 / 3)));
+                if (rejectedBefore) factor = Math.min(factor, 1);
+                if (!last) lastStep = h * factor;
+                h = h * factor;
+                rejectedBefore = false;
+                if (elapsed < duration) {
+                    kernel.jacobian(state, jacobian);
+                }
+            }
+            else {
+                countRejected();
+                double factor = Double.isNaN(err) ? MIN_FACTOR : Math.max(MIN_FACTOR, SAFETY * Math.pow(err, -1.0 / 3));
+                h = h * factor;
+                rejectedBefore = true;
+                checkStep(h);
+            }
+        }
+    }
+
+    /**
+     * Called after a step is accepted, while {@code jacobian} and {@code w} still belong to its start
+     * and {@code tmp} holds its midpoint state
+     */
+    private void advanceSensitivity(ReactorKernel kernel, double[] state, double h, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        int n = ReactorKernel.SIZE;
+        kernel.parameterJacobian(state, cCH4In, cC3H4In, cO2In, tIn, parameterJacobian);
+        for (int p = 0; p < P; p++) {
+            for (int i = 0; i < n; i++) {
+                double sum = parameterJacobian[i * P + p];
+                for (int k = 0; k < n; k++) {
+                    sum += jacobian[i * n + k] * sensitivity[k * P + p];
+                }
+                column[i] = sum;
+            }
+            DenseLU.solve(w, n, pivot, column);
+            for (int i = 0; i < n; i++) ks1[i * P + p] = column[i];
+        }
+
+        kernel.jacobian(tmp, halfJacobian);
+        kernel.parameterJacobian(tmp, cCH4In, cC3H4In, cO2In, tIn, parameterJacobian);
+        for (int p = 0; p < P; p++) {
+            for (int i = 0; i < n; i++) {
+                halfColumn[i] = sensitivity[i * P + p] + 0.5 * h * ks1[i * P + p];
+            }
+            for (int i = 0; i < n; i++) {
+                double sum = parameterJacobian[i * P + p];
+                for (int k = 0; k < n; k++) {
+                    sum += halfJacobian[i * n + k] * halfColumn[k];
+                }
+                column[i] = sum - ks1[i * P + p];
+            }
+            DenseLU.solve(w, n, pivot, column);
+            for (int i = 0; i < n; i++) {
+                sensitivity[i * P + p] += h * (column[i] + ks1[i * P + p]);
+            }
+        }
+    }
+
+    /**
+     * Enables sensitivities and sets them to those of a state just produced by {@link ReactorKernel#init}
+     */
+    public void initSensitivity(ReactorKernel kernel, double[] state) {
+        sensitivityEnabled = true;
+        kernel.initialSensitivity(state, sensitivity);
+    }
+
+    public boolean isSensitivityEnabled() {
+        return sensitivityEnabled;
+    }
+
+    public void setSensitivityEnabled(boolean sensitivityEnabled) {
+        this.sensitivityEnabled = sensitivityEnabled;
+    }
+
+    /**@return Live {@link ReactorKernel#SIZE} x {@link ReactorKernel#PARAMETERS} row-major sensitivity matrix*/
+    public double[] getSensitivity() {
+        return sensitivity;
+    }
+
+    private void checkStep(double h) {
+        if (h < minStep) {
+            throw new IllegalStateException("Step size " + h + " fell below the minimum of " + minStep);
+        }
+    }
+
+    /**
+     * Forgets the step size carried over from the previous call
+     */
+    public void reset() {
+        lastStep = 0;
+    }
+
+    public long getFactorizations() {
+        return factorizations;
+    }
+
+    @Override
+    public void resetStatistics() {
+        super.resetStatistics();
+        factorizations = 0;
+    }
+
+    public double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    public void setRelativeTolerance(double relativeTolerance) {
+        if (relativeTolerance <= 0) throw new IllegalArgumentException("Relative tolerance must be positive");
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+
+    public void setAbsoluteTolerance(double absoluteTolerance) {
+        if (absoluteTolerance < 0) throw new IllegalArgumentException("Absolute tolerance must be non-negative");
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    public double getMinStep() {
+        return minStep;
+    }
+
+    public void setMinStep(double minStep) {
+        this.minStep = minStep;
+    }
+
+    public double getMaxStep() {
+        return maxStep;
+    }
+
+    public void setMaxStep(double maxStep) {
+        this.maxStep = maxStep;
+    }
+
+    public double getInitialStep() {
+        return initialStep;
+    }
+
+    public void setInitialStep(double initialStep) {
+        this.initialStep = initialStep;
+    }
+}
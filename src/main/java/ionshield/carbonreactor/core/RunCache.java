@@ -0,0 +1,336 @@
+package ionshield.carbonreactor.core;
+
+import java.util.*;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+
+/**
+ * Cache of run prefixes for interactive what-if runs. While a run goes, about {@code snapshotsPerRun} snapshots are kept
+ * of the reactor, the steady state monitor and a copy of the sink, together with a hash of the CH4 inlet up to the snapshot.
+ * Runs are grouped by a key of all other inputs. A new run with the same key resumes from the latest snapshot whose inlet
+ * prefix is unchanged and that is not past its end, so extending a run or changing the inlet late in the run only computes
+ * the rest. Results are the same as those of an uncached run. The inlet is read forward from iterators, one for the hashes of
+ * the cached prefixes and one for the run, so a random inlet is never kept in memory.
+ * Runs are evicted least recently used first once the snapshots take more than the memory budget. Not thread-safe.
+ * @param <S> Sink type, all runs of a cache use sinks from the same factory
+ */
+public class RunCache<S extends CopyableSink> {
+    private static final long SNAPSHOT_OVERHEAD = 96;
+
+    private final Supplier<? extends S> sinks;
+    private long budget;
+    private int snapshotsPerRun = 32;
+
+    private final LinkedHashMap<Object, NavigableMap<Integer, Snapshot>> runs = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * @param sinks Factory of empty sinks
+     * @param budget Memory budget of the snapshots in bytes
+     */
+    public RunCache(Supplier<? extends S> sinks, long budget) {
+        this.sinks = sinks;
+        setBudget(budget);
+    }
+
+    /**
+     * Runs a scenario like {@link Scenario#run(CarbonReactor, TrajectorySink)}
+     */
+    public Result<S> run(Scenario scenario) {
+        List<Object> key = Arrays.asList(scenario.getcCH4Fraction(), scenario.getcC3H4Fraction(), scenario.getVolume(), scenario.gettIn(),
+                scenario.getDeltaTime(), scenario.isRandomized());
+        Supplier<PrimitiveIterator.OfDouble> cCH4In;
+        if (scenario.isRandomized()) {
+            long seed = scenario.getSeed();
+            cCH4In = () -> scenario.randomProcess(seed);
+        }
+        else {
+            double c = scenario.getcCH4In();
+            cCH4In = () -> DoubleStream.generate(() -> c).iterator();
+        }
+        return run(key, scenario::createReactor, scenario.getDeltaTime(), scenario.getSteps(), cCH4In, scenario.getcC3H4In(), scenario.getcO2In(),
+                scenario.gettIn(), !scenario.isRandomized());
+    }
+
+    /**
+     * Runs {@code steps} ticks like {@link CarbonReactor#run}, resuming from a snapshot if possible
+     * @param key Equal for runs that differ only in length and the CH4 inlet
+     * @param reactors Factory of the initialized reactor
+     * @param cCH4In Factory of iterators over the CH4 inlet of every tick from the first, all giving the same values
+     * @param monitored Whether the run stops at steady state
+     */
+    public Result<S> run(Object key, Supplier<CarbonReactor> reactors, double seconds, int steps, Supplier<? extends PrimitiveIterator.OfDouble> cCH4In, double cC3H4In, double cO2In, double tIn, boolean monitored) {
+        NavigableMap<Integer, Snapshot> snapshots = runs.computeIfAbsent(key, k -> new TreeMap<>());
+
+        //Latest snapshot with the same inlet prefix
+        Snapshot start = null;
+        long hash = 0;
+        int hashed = 0;
+        PrimitiveIterator.OfDouble prefix = cCH4In.get();
+        for (Snapshot s : snapshots.values()) {
+            if (s.tick > steps) {
+                break;
+            }
+            for (; hashed < s.tick; hashed++) {
+                hash = mix(hash, prefix.nextDouble());
+            }
+            if (s.hash == hash) {
+                start = s;
+            }
+        }
+
+        CarbonReactor reactor = reactors.get();
+        S sink;
+        SteadyStateMonitor monitor;
+        int done;
+        if (start != null) {
+            reactor.restore(start.reactor);
+            sink = copy(start.sink);
+            monitor = start.monitor != null ? new SteadyStateMonitor(start.monitor) : null;
+            done = start.tick;
+            hash = start.hash;
+        }
+        else {
+            sink = sinks.get();
+            monitor = monitored ? new SteadyStateMonitor() : null;
+            done = 0;
+            hash = 0;
+        }
+
+        Inlet inlet = new Inlet(cCH4In.get());
+        for (int i = done; i > 0; i--) {
+            inlet.values.nextDouble();
+        }
+        Recorder recorder = new Recorder(snapshots, reactor, sink, monitor, inlet, seconds, Math.max(1, steps / snapshotsPerRun), done, hash);
+        int made = reactor.run(seconds, steps - done, inlet, cC3H4In, cO2In, tIn, recorder, monitor);
+        //The end of a run that did not settle is where a longer one resumes
+        if (done + made == steps && steps > done) {
+            recorder.snapshot();
+        }
+        evict(key);
+        return new Result<>(sink, reactor, done + made, done);
+    }
+
+    private static long mix(long hash, double value) {
+        long z = (hash ^ Double.doubleToLongBits(value)) * 0x9E3779B97F4A7C15L;
+        return z ^ (z >>> 29);
+    }
+
+    @SuppressWarnings("unchecked")
+    private S copy(CopyableSink sink) {
+        return (S) sink.copy();
+    }
+
+    /**
+     * Drops least recently used runs, then every other snapshot of the current run, until the budget is met
+     */
+    private void evict(Object current) {
+        Iterator<Map.Entry<Object, NavigableMap<Integer, Snapshot>>> it = runs.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            Map.Entry<Object, NavigableMap<Integer, Snapshot>> e = it.next();
+            if (!e.getKey().equals(current)) {
+                for (Snapshot s : e.getValue().values()) {
+                    bytes -= s.bytes;
+                }
+                it.remove();
+            }
+        }
+        NavigableMap<Integer, Snapshot> snapshots = runs.get(current);
+        while (bytes > budget && !snapshots.isEmpty()) {
+            if (snapshots.size() == 1) {
+                bytes -= snapshots.pollFirstEntry().getValue().bytes;
+                break;
+            }
+            Integer last = snapshots.lastKey();
+            boolean drop = true;
+            for (Iterator<Snapshot> i = snapshots.values().iterator(); i.hasNext(); ) {
+                Snapshot s = i.next();
+                if (drop && s.tick != last) {
+                    bytes -= s.bytes;
+                    i.remove();
+                }
+                drop = !drop;
+            }
+        }
+    }
+
+    /**
+     * Drops all snapshots
+     */
+    public void clear() {
+        runs.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Inlet of a run, read once per tick like in {@link Scenario#run}. The value of the last tick is kept for its hash
+     */
+    private static class Inlet implements IntToDoubleFunction {
+        private final PrimitiveIterator.OfDouble values;
+        private double last;
+
+        Inlet(PrimitiveIterator.OfDouble values) {
+            this.values = values;
+        }
+
+        @Override
+        public double applyAsDouble(int tick) {
+            last = values.nextDouble();
+            return last;
+        }
+    }
+
+    /**
+     * Forwards samples to the sink, except the repeated first sample of a resumed run, and takes snapshots
+     */
+    private class Recorder implements TrajectorySink {
+        private final NavigableMap<Integer, Snapshot> snapshots;
+        private final CarbonReactor reactor;
+        private final S sink;
+        private final SteadyStateMonitor monitor;
+        private final Inlet inlet;
+        private final double seconds;
+        private final int interval;
+        private final int start;
+
+        private int tick;
+        private long hash;
+        private double[] previous = ReactorKernel.newState();
+        private double[] current = ReactorKernel.newState();
+
+        Recorder(NavigableMap<Integer, Snapshot> snapshots, CarbonReactor reactor, S sink, SteadyStateMonitor monitor, Inlet inlet, double seconds, int interval, int start, long hash) {
+            this.snapshots = snapshots;
+            this.reactor = reactor;
+            this.sink = sink;
+            this.monitor = monitor;
+            this.inlet = inlet;
+            this.seconds = seconds;
+            this.interval = interval;
+            this.start = start;
+            this.tick = start - 1;
+            this.hash = hash;
+        }
+
+        @Override
+        public void begin(ReactorKernel kernel) {
+            sink.begin(kernel);
+        }
+
+        @Override
+        public void accept(double time, double[] state) {
+            //The extra sample of a settled run lies past the reactor time and is not a tick
+            if (time != reactor.getTime()) {
+                sink.accept(time, state);
+                return;
+            }
+            double[] t = previous;
+            previous = current;
+            current = t;
+            System.arraycopy(state, 0, current, 0, current.length);
+            tick++;
+            if (tick == start) {
+                //A resumed run repeats the state its sink has already seen
+                if (start == 0) {
+                    sink.accept(time, state);
+                }
+                return;
+            }
+            //The sample follows the tick, so the inlet of tick - 1 is the last one read
+            hash = mix(hash, inlet.last);
+            sink.accept(time, state);
+            if (tick % interval == 0) {
+                snapshot();
+            }
+        }
+
+        @Override
+        public void end() {
+            sink.end();
+        }
+
+        /**
+         * Keeps the current tick unless it is kept for the same inlet already, replacing one of another inlet.
+         * The monitor is given the last tick, which the run only shows it after the sample
+         */
+        void snapshot() {
+            Snapshot old = snapshots.get(tick);
+            if (old != null && old.hash == hash) {
+                return;
+            }
+            SteadyStateMonitor m = null;
+            if (monitor != null) {
+                m = new SteadyStateMonitor(monitor);
+                if (m.update(previous, current, seconds, reactor.getKernel().getHeatCapacity())) {
+                    //The run stops here, a resumed one would not
+                    return;
+                }
+            }
+            Snapshot s = new Snapshot(tick, hash, reactor.snapshot(), m, sink.copy());
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+            snapshots.put(tick, s);
+            bytes += s.bytes;
+        }
+    }
+
+    private static class Snapshot {
+        private final int tick;
+        private final long hash;
+        private final byte[] reactor;
+        private final SteadyStateMonitor monitor;
+        private final CopyableSink sink;
+        private final long bytes;
+
+        Snapshot(int tick, long hash, byte[] reactor, SteadyStateMonitor monitor, CopyableSink sink) {
+            this.tick = tick;
+            this.hash = hash;
+            this.reactor = reactor;
+            this.monitor = monitor;
+            this.sink = sink;
+            bytes = SNAPSHOT_OVERHEAD + reactor.length + sink.getMemoryBytes();
+        }
+    }
+
+    public static class Result<S> {
+        /** Sink with all samples of the run, including those restored from the cache */
+        public final S sink;
+        /** Reactor after the last tick */
+        public final CarbonReactor reactor;
+        /** Number of ticks of the whole run */
+        public final int ticks;
+        /** Number of ticks taken from the cache */
+        public final int reused;
+
+        public Result(S sink, CarbonReactor reactor, int ticks, int reused) {
+            this.sink = sink;
+            this.reactor = reactor;
+            this.ticks = ticks;
+            this.reused = reused;
+        }
+    }
+
+    /**@return Memory taken by the snapshots in bytes*/
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public void setBudget(long budget) {
+        if (budget < 0) throw new IllegalArgumentException("Budget must not be negative");
+        this.budget = budget;
+    }
+
+    public int getSnapshotsPerRun() {
+        return snapshotsPerRun;
+    }
+
+    public void setSnapshotsPerRun(int snapshotsPerRun) {
+        if (snapshotsPerRun < 1) throw new IllegalArgumentException("Number of snapshots must be positive");
+        this.snapshotsPerRun = snapshotsPerRun;
+    }
+}
@@ -0,0 +1,490 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Inputs of one model run: inlet composition, reactor volume and inlet temperature, run length,
+ * the optional random CH4 inlet and the optional optimization of volume and inlet temperature.
+ * Defaults are those of the main window. Free of any UI classes, so it can be run headless.
+ */
+public class Scenario {
+    public static final int MAX_STEPS = 10000000;
+    /**Pattern search by values only*/
+    public static final String SOLVER_HOOKE_JEEVES = "hookeJeeves";
+    /**Polak-Ribiere conjugate gradient by the exact gradient of the objective*/
+    public static final String SOLVER_GRADIENT = "gradient";
+    /**Steady state of the reactor, see {@link ReactorObjective}*/
+    public static final String OBJECTIVE_STEADY = "steady";
+    /**Euler run of the scenario differentiated in dual numbers, see {@link DualReactorObjective}*/
+    public static final String OBJECTIVE_TRANSIENT = "transient";
+
+    private String name = "scenario";
+
+    private double cCH4Fraction = 0.22;
+    private double cC3H4Fraction = 0.43;
+    private double volume = 5; //m^3
+    private double tIn = 1400; //deg
+    private double time = 50; //s
+    private double deltaTime = 0.001; //s
+
+    private boolean randomized = false;
+    private long seed = 11411;
+    private long multiplier = 63018038201L;
+    private long modulus = 160001;
+    private double m0 = 20;
+    private double s0 = 12;
+    private double a0 = 0.07;
+    private int realizations = 1;
+    private boolean tabulated = false;
+
+    private boolean optimized = false;
+    private double minV = 5;
+    private double maxV = 10;
+    private double minT = 1400;
+    private double maxT = 1800;
+    private String solver = SOLVER_HOOKE_JEEVES;
+    private String objective = OBJECTIVE_STEADY;
+
+    /**
+     * Reads a scenario from properties named like the fields of this class; missing ones keep their defaults
+     * @throws IllegalArgumentException If a value cannot be parsed
+     */
+    public static Scenario fromProperties(Properties p) {
+        Scenario s = new Scenario();
+        try {
+            s.setName(p.getProperty("name", s.getName()));
+            s.setcCH4Fraction(Double.parseDouble(p.getProperty("cCH4", Double.toString(s.getcCH4Fraction()))));
+            s.setcC3H4Fraction(Double.parseDouble(p.getProperty("cC3H4", Double.toString(s.getcC3H4Fraction()))));
+            s.setVolume(Double.parseDouble(p.getProperty("volume", Double.toString(s.getVolume()))));
+            s.settIn(Double.parseDouble(p.getProperty("tIn", Double.toString(s.gettIn()))));
+            s.setTime(Double.parseDouble(p.getProperty("time", Double.toString(s.getTime()))));
+            s.setDeltaTime(Double.parseDouble(p.getProperty("deltaTime", Double.toString(s.getDeltaTime()))));
+
+            s.setRandomized(Boolean.parseBoolean(p.getProperty("randomized", Boolean.toString(s.isRandomized()))));
+            s.setSeed(Long.parseLong(p.getProperty("seed", Long.toString(s.getSeed()))));
+            s.setMultiplier(Long.parseLong(p.getProperty("multiplier", Long.toString(s.getMultiplier()))));
+            s.setModulus(Long.parseLong(p.getProperty("modulus", Long.toString(s.getModulus()))));
+            s.setM0(Double.parseDouble(p.getProperty("m0", Double.toString(s.getM0()))));
+            s.setS0(Double.parseDouble(p.getProperty("s0", Double.toString(s.getS0()))));
+            s.setA0(Double.parseDouble(p.getProperty("a0", Double.toString(s.getA0()))));
+            s.setRealizations(Integer.parseInt(p.getProperty("realizations", Integer.toString(s.getRealizations()))));
+            s.setTabulated(Boolean.parseBoolean(p.getProperty("tabulated", Boolean.toString(s.isTabulated()))));
+
+            s.setOptimized(Boolean.parseBoolean(p.getProperty("optimized", Boolean.toString(s.isOptimized()))));
+            s.setMinV(Double.parseDouble(p.getProperty("minV", Double.toString(s.getMinV()))));
+            s.setMaxV(Double.parseDouble(p.getProperty("maxV", Double.toString(s.getMaxV()))));
+            s.setMinT(Double.parseDouble(p.getProperty("minT", Double.toString(s.getMinT()))));
+            s.setMaxT(Double.parseDouble(p.getProperty("maxT", Double.toString(s.getMaxT()))));
+            s.setSolver(p.getProperty("solver", s.getSolver()));
+            s.setObjective(p.getProperty("objective", s.getObjective()));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid scenario value: " + e.getMessage(), e);
+        }
+        return s;
+    }
+
+    public int getSteps() {
+        return (int) Math.min(Math.round(time / deltaTime), MAX_STEPS);
+    }
+
+    public double getcCH4In() {
+        CarbonReactor reactor = new CarbonReactor();
+        return reactor.concentrationInMolesPerCubicMeter(cCH4Fraction, reactor.getmCH4());
+    }
+
+    public double getcC3H4In() {
+        CarbonReactor reactor = new CarbonReactor();
+        return reactor.concentrationInMolesPerCubicMeter(cC3H4Fraction, reactor.getmC3H4());
+    }
+
+    public double getcO2In() {
+        CarbonReactor reactor = new CarbonReactor();
+        return reactor.concentrationInMolesPerCubicMeter(1 - cC3H4Fraction - cCH4Fraction, reactor.getmO2());
+    }
+
+    /**
+     * @return Reactor initialized at the inlet, at the mean of the random inlet if it is used
+     */
+    public CarbonReactor createReactor() {
+        CarbonReactor reactor = new CarbonReactor();
+        reactor.init(randomized ? m0 : getcCH4In(), getcC3H4In(), getcO2In(), volume, tIn);
+        return reactor;
+    }
+
+    /**
+     * @return CH4 inlet concentration for every step of the run
+     */
+    public double[] randomInlet() {
+        return randomInlet(seed);
+    }
+
+    /**
+     * @return CH4 inlet concentration for every step of the run with the random sequence started from another seed
+     */
+    public double[] randomInlet(long seed) {
+        double[] rowZ = new double[getSteps()];
+        RandomProcessIterator z = randomProcess(seed);
+        for (int i = 0; i < rowZ.length; i++) {
+            rowZ[i] = z.nextDouble();
+        }
+        return rowZ;
+    }
+
+    /**
+     * @return CH4 inlet concentration step by step, the same as {@link #randomInlet(long)} without keeping the run in memory
+     */
+    public RandomProcessIterator randomProcess(long seed) {
+        return randomProcess(() -> new CongruentialRNG(seed, multiplier, modulus));
+    }
+
+    /**
+     * @param source Factory of generators all giving the same raw sequence, used instead of the congruential generator of the scenario
+     * @return CH4 inlet concentration step by step
+     */
+    public RandomProcessIterator randomProcess(Supplier<? extends DoubleRNG> source) {
+        RandomProcessGenerator rpg = new RandomProcessGenerator(m0, s0, a0);
+        return rpg.iterator(source, -0.5, 0.5, (int) Math.ceil(getSteps() * rpg.getnS()));
+    }
+
+    /**
+     * Runs all steps of the scenario on {@code reactor}. The inlet is constant unless randomized,
+     * so then a settled run is cut short.
+     * @return Number of ticks made
+     */
+    public int run(CarbonReactor reactor, TrajectorySink sink) {
+        if (randomized) {
+            //Run asks for the inlet of every tick once, in order
+            RandomProcessIterator z = randomProcess(seed);
+            return reactor.run(deltaTime, getSteps(), i -> z.nextDouble(), getcC3H4In(), getcO2In(), tIn, sink, null);
+        }
+        return reactor.run(deltaTime, getSteps(), getcCH4In(), getcC3H4In(), getcO2In(), tIn, sink, new SteadyStateMonitor());
+    }
+
+    /**
+     * Runs the scenario writing a checkpoint every {@code interval} ticks. If the checkpoint file exists, the reactor is
+     * restored from it and only the remaining ticks are run, so a crashed run resumes and a finished one is extended
+     * to a longer scenario time. The sink then starts with the restored state. A resumed run ends in exactly the state of an
+     * uninterrupted one, as the checkpoint also holds the progress of the steady-state monitor. A run that has settled or
+     * made all its ticks is not continued, so running a finished scenario again only passes the restored state to the sink.
+     * A randomized run cannot be extended: the random inlet is normalized over the whole run length,
+     * so the inlet of a longer run differs from its first ticks on.
+     * @return Number of ticks made, including those before the checkpoint
+     * @throws IOException If the checkpoint belongs to a scenario with other inputs, see {@link #checkpointKey()},
+     * or lies past the end of this scenario
+     */
+    public int run(CarbonReactor reactor, TrajectorySink sink, Path checkpoint, int interval) throws IOException {
+        String key = checkpointKey();
+        SteadyStateMonitor monitor = randomized ? null : new SteadyStateMonitor();
+        int done = 0;
+        boolean settled = false;
+        if (Files.exists(checkpoint)) {
+            CarbonReactor restored = new CarbonReactor();
+            CheckpointSink.Restored res = CheckpointSink.restore(checkpoint, restored, key, monitor);
+            if (res.ticks > getSteps()) {
+                throw new IOException("Checkpoint " + checkpoint + " at tick " + res.ticks + " lies past the end of the scenario at tick " + getSteps());
+            }
+            reactor.restore(restored.snapshot());
+            done = (int) res.ticks;
+            settled = res.settled;
+        }
+        int steps = getSteps() - done;
+        if (settled || steps == 0) {
+            sink.begin(reactor.getKernel());
+            sink.accept(reactor.getTime(), reactor.getState());
+            if (steps > 0) {
+                //Flat rest of a settled run, as the uninterrupted run represents it
+                sink.accept(reactor.getTime() + steps * deltaTime, reactor.getState());
+            }
+            sink.end();
+            return done;
+        }
+        TrajectorySink all = new MultiSink(sink, new CheckpointSink(reactor, checkpoint, interval, done, key, monitor));
+        if (randomized) {
+            RandomProcessIterator z = randomProcess(seed);
+            for (int i = done; i > 0; i--) {
+                z.nextDouble();
+            }
+            return done + reactor.run(deltaTime, steps, i -> z.nextDouble(), getcC3H4In(), getcO2In(), tIn, all, null);
+        }
+        return done + reactor.run(deltaTime, steps, getcCH4In(), getcC3H4In(), getcO2In(), tIn, all, monitor);
+    }
+
+    /**
+     * @return Inputs a run of this scenario depends on, recorded in its checkpoints. The run length is not among them
+     * unless the scenario is randomized, so only a run with a constant inlet can be extended
+     */
+    public String checkpointKey() {
+        StringBuilder key = new StringBuilder();
+        key.append("cCH4=").append(cCH4Fraction);
+        key.append(";cC3H4=").append(cC3H4Fraction);
+        key.append(";volume=").append(volume);
+        key.append(";tIn=").append(tIn);
+        key.append(";deltaTime=").append(deltaTime);
+        key.append(";randomized=").append(randomized);
+        if (randomized) {
+            key.append(";seed=").append(seed);
+            key.append(";multiplier=").append(multiplier);
+            key.append(";modulus=").append(modulus);
+            key.append(";m0=").append(m0);
+            key.append(";s0=").append(s0);
+            key.append(";a0=").append(a0);
+            key.append(";steps=").append(getSteps());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Maximizes the carbon concentration over volume and inlet temperature within the scenario bounds,
+     * starting from the scenario volume and inlet temperature
+     */
+    public Optimization optimize() {
+        DifferentiableFunction function = createObjective();
+
+        Solver solver = this.solver.equals(SOLVER_GRADIENT) ? new GradientSolver() : new HookeJeevesSolver();
+        solver.setF(function);
+
+        List<BiFunction<Double, Double, Double>> limits = new ArrayList<>();
+        limits.add((x, y) -> x - minV);
+        limits.add((x, y) -> maxV - x);
+        limits.add((x, y) -> y - minT);
+        limits.add((x, y) -> maxT - y);
+
+        PenaltyAdjuster pa = new PenaltyAdjuster(solver, PenaltyAdjuster.QUADRATIC_PENALTY_FUNCTION, limits, new ArrayList<>(), true);
+        PointDouble res = pa.solve(new PointDouble(volume, tIn), new PointDouble(0.5, 40));
+        double value = -function.apply(res.getX(), res.getY());
+        SteadyStateSolver steadyStateSolver = function instanceof ReactorObjective ? ((ReactorObjective) function).getSteadyStateSolver() : new SteadyStateSolver();
+        int steadyStates = steadyStateSolver.findAll(res.getX(), getcCH4In(), getcC3H4In(), getcO2In(), res.getY()).size();
+        return new Optimization(res, value, steadyStates, function, pa);
+    }
+
+    /**
+     * @return New instance of the objective of {@link #optimize}, the negated carbon concentration over (volume, inlet temperature)
+     */
+    public DifferentiableFunction createObjective() {
+        if (objective.equals(OBJECTIVE_TRANSIENT)) {
+            return new DualReactorObjective(getcCH4In(), getcC3H4In(), getcO2In(), deltaTime, getSteps());
+        }
+        return new ReactorObjective(getcCH4In(), getcC3H4In(), getcO2In(), getSteps() * deltaTime);
+    }
+
+    public static class Optimization {
+        /**Optimal volume and inlet temperature*/
+        public final PointDouble point;
+        /**Carbon concentration at the optimum, mol/m^3*/
+        public final double value;
+        /**Number of steady states at the optimum*/
+        public final int steadyStates;
+        public final DifferentiableFunction objective;
+        public final PenaltyAdjuster adjuster;
+
+        public Optimization(PointDouble point, double value, int steadyStates, DifferentiableFunction objective, PenaltyAdjuster adjuster) {
+            this.point = point;
+            this.value = value;
+            this.steadyStates = steadyStates;
+            this.objective = objective;
+            this.adjuster = adjuster;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public double getcCH4Fraction() {
+        return cCH4Fraction;
+    }
+
+    public void setcCH4Fraction(double cCH4Fraction) {
+        this.cCH4Fraction = cCH4Fraction;
+    }
+
+    public double getcC3H4Fraction() {
+        return cC3H4Fraction;
+    }
+
+    public void setcC3H4Fraction(double cC3H4Fraction) {
+        this.cC3H4Fraction = cC3H4Fraction;
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    public void setVolume(double volume) {
+        this.volume = volume;
+    }
+
+    public double gettIn() {
+        return tIn;
+    }
+
+    public void settIn(double tIn) {
+        this.tIn = tIn;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public void setTime(double time) {
+        this.time = time;
+    }
+
+    public double getDeltaTime() {
+        return deltaTime;
+    }
+
+    public void setDeltaTime(double deltaTime) {
+        if (deltaTime <= 0) throw new IllegalArgumentException("Time step must be positive");
+        this.deltaTime = deltaTime;
+    }
+
+    public boolean isRandomized() {
+        return randomized;
+    }
+
+    public void setRandomized(boolean randomized) {
+        this.randomized = randomized;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getMultiplier() {
+        return multiplier;
+    }
+
+    public void setMultiplier(long multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public long getModulus() {
+        return modulus;
+    }
+
+    public void setModulus(long modulus) {
+        this.modulus = modulus;
+    }
+
+    public double getM0() {
+        return m0;
+    }
+
+    public void setM0(double m0) {
+        this.m0 = m0;
+    }
+
+    public double getS0() {
+        return s0;
+    }
+
+    public void setS0(double s0) {
+        this.s0 = s0;
+    }
+
+    public double getA0() {
+        return a0;
+    }
+
+    public void setA0(double a0) {
+        this.a0 = a0;
+    }
+
+    /**@return Number of realizations of the random inlet for an ensemble run*/
+    public int getRealizations() {
+        return realizations;
+    }
+
+    public void setRealizations(int realizations) {
+        if (realizations < 1) throw new IllegalArgumentException("Number of realizations must be positive");
+        this.realizations = realizations;
+    }
+
+    /**@return True if an ensemble run tabulates the reactor step, see {@link EnsembleRunner#setTabulated}*/
+    public boolean isTabulated() {
+        return tabulated;
+    }
+
+    public void setTabulated(boolean tabulated) {
+        this.tabulated = tabulated;
+    }
+
+    public boolean isOptimized() {
+        return optimized;
+    }
+
+    public void setOptimized(boolean optimized) {
+        this.optimized = optimized;
+    }
+
+    public double getMinV() {
+        return minV;
+    }
+
+    public void setMinV(double minV) {
+        this.minV = minV;
+    }
+
+    public double getMaxV() {
+        return maxV;
+    }
+
+    public void setMaxV(double maxV) {
+        this.maxV = maxV;
+    }
+
+    public double getMinT() {
+        return minT;
+    }
+
+    public void setMinT(double minT) {
+        this.minT = minT;
+    }
+
+    public double getMaxT() {
+        return maxT;
+    }
+
+    public void setMaxT(double maxT) {
+        this.maxT = maxT;
+    }
+
+    /**@return Optimizer, {@link #SOLVER_HOOKE_JEEVES} or {@link #SOLVER_GRADIENT}*/
+    public String getSolver() {
+        return solver;
+    }
+
+    public void setSolver(String solver) {
+        if (!solver.equals(SOLVER_HOOKE_JEEVES) && !solver.equals(SOLVER_GRADIENT)) throw new IllegalArgumentException("Unknown solver " + solver);
+        this.solver = solver;
+    }
+
+    /**@return Objective of the optimization, {@link #OBJECTIVE_STEADY} or {@link #OBJECTIVE_TRANSIENT}*/
+    public String getObjective() {
+        return objective;
+    }
+
+    public void setObjective(String objective) {
+        if (!objective.equals(OBJECTIVE_STEADY) && !objective.equals(OBJECTIVE_TRANSIENT)) throw new IllegalArgumentException("Unknown objective " + objective);
+        this.objective = objective;
+    }
+}
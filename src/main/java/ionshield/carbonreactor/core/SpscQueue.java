@@ -0,0 +1,70 @@
+package ionshield.carbonreactor.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ * Items are published by an ordered store of the tail index, so neither side ever blocks the other; both return
+ * immediately when the queue is full or empty and leave waiting to the caller.
+ */
+public class SpscQueue<T> {
+    private final Object[] items;
+    private final int mask;
+    //Next index to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    //Next index to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity Minimum capacity, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Capacity must be in [1, 2^30]");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        items = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Called by the producer
+     * @return False if the queue is full
+     */
+    public boolean offer(T item) {
+        if (item == null) throw new IllegalArgumentException("Item must not be null");
+        long t = tail.get();
+        if (t - head.get() == items.length) {
+            return false;
+        }
+        items[(int) (t & mask)] = item;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer
+     * @return Oldest item, null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int i = (int) (h & mask);
+        T item = (T) items[i];
+        items[i] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int getCapacity() {
+        return items.length;
+    }
+}
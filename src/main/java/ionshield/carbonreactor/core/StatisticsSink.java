@@ -0,0 +1,90 @@
+package ionshield.carbonreactor.core;
+
+import java.util.Arrays;
+
+/**
+ * Keeps count, minimum, maximum, mean and variance (Welford's method) of every state component and of the temperature
+ * over the samples of a run, in constant memory. Columns are {@link ReactorKernel} constants and {@link #TEMPERATURE}.
+ */
+public class StatisticsSink implements TrajectorySink {
+    public static final int TEMPERATURE = ReactorKernel.SIZE;
+    private static final int COLUMNS = ReactorKernel.SIZE + 1;
+
+    private double heatCapacity = Double.NaN;
+    private long count;
+    private double startTime = Double.NaN;
+    private double endTime = Double.NaN;
+    private final double[] min = new double[COLUMNS];
+    private final double[] max = new double[COLUMNS];
+    private final double[] mean = new double[COLUMNS];
+    private final double[] m2 = new double[COLUMNS];
+
+    public StatisticsSink() {
+        reset();
+    }
+
+    @Override
+    public void begin(ReactorKernel kernel) {
+        heatCapacity = kernel.getHeatCapacity();
+    }
+
+    @Override
+    public void accept(double time, double[] state) {
+        if (count == 0) {
+            startTime = time;
+        }
+        endTime = time;
+        count++;
+        for (int i = 0; i < ReactorKernel.SIZE; i++) {
+            add(i, state[i]);
+        }
+        add(TEMPERATURE, state[ReactorKernel.Q] / heatCapacity);
+    }
+
+    private void add(int column, double value) {
+        min[column] = Math.min(min[column], value);
+        max[column] = Math.max(max[column], value);
+        double delta = value - mean[column];
+        mean[column] += delta / count;
+        m2[column] += delta * (value - mean[column]);
+    }
+
+    public void reset() {
+        count = 0;
+        startTime = Double.NaN;
+        endTime = Double.NaN;
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        Arrays.fill(mean, 0);
+        Arrays.fill(m2, 0);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getStartTime() {
+        return startTime;
+    }
+
+    public double getEndTime() {
+        return endTime;
+    }
+
+    public double getMin(int column) {
+        return min[column];
+    }
+
+    public double getMax(int column) {
+        return max[column];
+    }
+
+    public double getMean(int column) {
+        return count > 0 ? mean[column] : Double.NaN;
+    }
+
+    /**@return Sample variance, NaN for less than two samples*/
+    public double getVariance(int column) {
+        return count > 1 ? m2[column] / (count - 1) : Double.NaN;
+    }
+}
@@ -0,0 +1,114 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Detects that a transient run has settled: every species rate (mol/m^3/s) and the temperature rate (K/s)
+ * has to stay below the tolerance for a window of consecutive updates
+ */
+public class SteadyStateMonitor {
+    private double tolerance = 1e-8;
+    private int window = 100;
+
+    private int count = 0;
+    private double lastNorm = Double.NaN;
+
+    public SteadyStateMonitor() {
+    }
+
+    public SteadyStateMonitor(double tolerance, int window) {
+        setTolerance(tolerance);
+        setWindow(window);
+    }
+
+    /**
+     * Copies settings and the updates seen so far
+     */
+    public SteadyStateMonitor(SteadyStateMonitor other) {
+        tolerance = other.tolerance;
+        window = other.window;
+        count = other.count;
+        lastNorm = other.lastNorm;
+    }
+
+    /**
+     * @param derivatives Time derivatives of the state, indexed by {@link ReactorKernel} constants
+     * @return True once the run has been steady for the whole window
+     */
+    public boolean update(double[] derivatives, double heatCapacity) {
+        double norm = 0;
+        for (int i = 0; i < ReactorKernel.Q; i++) {
+            norm = Math.max(norm, Math.abs(derivatives[i]));
+        }
+        norm = Math.max(norm, Math.abs(derivatives[ReactorKernel.Q] / heatCapacity));
+        return record(norm);
+    }
+
+    /**
+     * Same as {@link #update(double[], double)} with derivatives estimated from two consecutive states
+     */
+    public boolean update(double[] previous, double[] current, double seconds, double heatCapacity) {
+        double norm = 0;
+        for (int i = 0; i < ReactorKernel.Q; i++) {
+            norm = Math.max(norm, Math.abs(current[i] - previous[i]));
+        }
+        norm = Math.max(norm, Math.abs((current[ReactorKernel.Q] - previous[ReactorKernel.Q]) / heatCapacity));
+        return record(norm / seconds);
+    }
+
+    private boolean record(double norm) {
+        lastNorm = norm;
+        if (norm < tolerance) {
+            count++;
+        }
+        else {
+            count = 0;
+        }
+        return isSteady();
+    }
+
+    public boolean isSteady() {
+        return count >= window;
+    }
+
+    public void reset() {
+        count = 0;
+        lastNorm = Double.NaN;
+    }
+
+    /**
+     * Continues from the updates of another run, e.g. one restored from a checkpoint
+     * @param count Number of consecutive steady updates, see {@link #getCount()}
+     */
+    public void restore(int count, double lastNorm) {
+        if (count < 0) throw new IllegalArgumentException("Count must not be negative");
+        this.count = count;
+        this.lastNorm = lastNorm;
+    }
+
+    /**@return Number of consecutive updates below the tolerance so far*/
+    public int getCount() {
+        return count;
+    }
+
+    /**@return Largest rate seen by the last update*/
+    public double getLastNorm() {
+        return lastNorm;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        if (tolerance <= 0) throw new IllegalArgumentException("Tolerance must be positive");
+        this.tolerance = tolerance;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public void setWindow(int window) {
+        if (window < 1) throw new IllegalArgumentException("Window must be at least one update");
+        this.window = window;
+    }
+}
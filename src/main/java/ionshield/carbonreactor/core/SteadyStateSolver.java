@@ -0,0 +1,301 @@
+package ionshield.carbonreactor.core;
+
+import ionshield.carbonreactor.math.DenseLU;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds fixed points of the reactor ODE directly with damped Newton iterations on {@link ReactorKernel#derivatives},
+ * using its analytic Jacobian. Physical parameters other than volume are taken from the model reactor.
+ * The last converged solution is remembered and used as the starting point (with natural-parameter continuation
+ * if necessary) for the next solve, so sweeping over nearby parameters costs a few iterations per point.
+ * Not thread-safe.
+ */
+public class SteadyStateSolver {
+    private static final int N = ReactorKernel.SIZE;
+    private static final double[] SEED_TEMPERATURE_FACTORS = {1, 1.1, 1.25, 1.5, 2, 3};
+
+    private final CarbonReactor model;
+
+    private double relativeTolerance = 1e-10;
+    private double absoluteTolerance = 1e-12;
+    private int maxIterations = 50;
+    private int maxContinuationDepth = 6;
+    private double distinctTolerance = 1e-6;
+
+    private final double[] jacobian = new double[N * N];
+    private final int[] pivot = new int[N];
+    private final double[] f = new double[N];
+    private final double[] dx = new double[N];
+    private final double[] trial = new double[N];
+    private final double[] parameterJacobian = new double[N * ReactorKernel.PARAMETERS];
+
+    private boolean hasKnown = false;
+    private final double[] known = new double[N];
+    private final double[] knownParams = new double[5];
+    private final double[] params = new double[5];
+
+    private int iterations;
+
+    public SteadyStateSolver(CarbonReactor model) {
+        this.model = model;
+    }
+
+    public SteadyStateSolver() {
+        this(new CarbonReactor());
+    }
+
+    /**
+     * Solves for a steady state, starting from the last known solution if there is one, and from the cold
+     * reactor state (inlet composition at inlet temperature) otherwise
+     * @param out Receives the solution
+     * @return True if Newton converged
+     */
+    public boolean solve(double volume, double cCH4In, double cC3H4In, double cO2In, double tIn, double[] out) {
+        iterations = 0;
+        setParams(params, volume, cCH4In, cC3H4In, cO2In, tIn);
+        boolean ok;
+        if (hasKnown) {
+            ok = continueFrom(known, knownParams, params, out, 0);
+            if (!ok) {
+                coldStart(out);
+                ok = newton(kernel(volume), out, cCH4In, cC3H4In, cO2In, tIn);
+            }
+        }
+        else {
+            coldStart(out);
+            ok = newton(kernel(volume), out, cCH4In, cC3H4In, cO2In, tIn);
+        }
+        if (ok) {
+            remember(out, params);
+        }
+        return ok;
+    }
+
+    /**
+     * Solves for a steady state starting from the given guess, without continuation
+     */
+    public boolean solveFrom(double[] guess, double volume, double cCH4In, double cC3H4In, double cO2In, double tIn, double[] out) {
+        iterations = 0;
+        System.arraycopy(guess, 0, out, 0, N);
+        boolean ok = newton(kernel(volume), out, cCH4In, cC3H4In, cO2In, tIn);
+        if (ok) {
+            setParams(params, volume, cCH4In, cC3H4In, cO2In, tIn);
+            remember(out, params);
+        }
+        return ok;
+    }
+
+    /**
+     * Searches for all steady states by starting Newton from seeds over a range of temperatures
+     * @return Distinct converged solutions ordered by temperature; more than one means the reactor has multiple steady states
+     */
+    public List<double[]> findAll(double volume, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        ReactorKernel kernel = kernel(volume);
+        List<double[]> solutions = new ArrayList<>();
+        for (double factor : SEED_TEMPERATURE_FACTORS) {
+            double[] candidate = new double[N];
+            kernel.init(candidate, cCH4In, cC3H4In, cO2In, tIn * factor);
+            if (!newton(kernel, candidate, cCH4In, cC3H4In, cO2In, tIn)) continue;
+
+            boolean distinct = true;
+            for (double[] s : solutions) {
+                if (scaledDistance(s, candidate) < distinctTolerance) {
+                    distinct = false;
+                    break;
+                }
+            }
+            if (distinct) {
+                solutions.add(candidate);
+            }
+        }
+        solutions.sort((a, b) -> Double.compare(a[ReactorKernel.Q], b[ReactorKernel.Q]));
+        return solutions;
+    }
+
+    /**
+     * Computes the sensitivity of a steady state to the parameters by the implicit function theorem, dy/dp = -J^-1 * df/dp
+     * @param out Receives a {@link ReactorKernel#SIZE} x {@link ReactorKernel#PARAMETERS} row-major matrix
+     * @return False if the Jacobian is singular
+     */
+    public boolean sensitivity(double[] steadyState, double volume, double cCH4In, double cC3H4In, double cO2In, double tIn, double[] out) {
+        ReactorKernel kernel = kernel(volume);
+        kernel.jacobian(steadyState, jacobian);
+        if (!DenseLU.decompose(jacobian, N, pivot)) return false;
+        kernel.parameterJacobian(steadyState, cCH4In, cC3H4In, cO2In, tIn, parameterJacobian);
+        int p = ReactorKernel.PARAMETERS;
+        for (int j = 0; j < p; j++) {
+            for (int i = 0; i < N; i++) dx[i] = -parameterJacobian[i * p + j];
+            DenseLU.solve(jacobian, N, pivot, dx);
+            for (int i = 0; i < N; i++) out[i * p + j] = dx[i];
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the remembered solution, so the next {@link #solve} starts cold
+     */
+    public void reset() {
+        hasKnown = false;
+    }
+
+    private boolean continueFrom(double[] from, double[] fromParams, double[] toParams, double[] out, int depth) {
+        System.arraycopy(from, 0, out, 0, N);
+        if (newton(kernel(toParams[0]), out, toParams[1], toParams[2], toParams[3], toParams[4])) {
+            return true;
+        }
+        if (depth >= maxContinuationDepth) {
+            return false;
+        }
+        double[] midParams = new double[5];
+        for (int i = 0; i < 5; i++) {
+            midParams[i] = (fromParams[i] + toParams[i]) / 2;
+        }
+        double[] mid = new double[N];
+        if (!continueFrom(from, fromParams, midParams, mid, depth + 1)) {
+            return false;
+        }
+        return continueFrom(mid, midParams, toParams, out, depth + 1);
+    }
+
+    private boolean newton(ReactorKernel kernel, double[] y, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        double qScale = 1 / kernel.getHeatCapacity();
+        kernel.derivatives(y, cCH4In, cC3H4In, cO2In, tIn, f);
+        double merit = merit(f, qScale);
+
+        for (int it = 0; it < maxIterations; it++) {
+            iterations++;
+            if (Double.isNaN(merit)) return false;
+
+            kernel.jacobian(y, jacobian);
+            if (!DenseLU.decompose(jacobian, N, pivot)) return false;
+            for (int i = 0; i < N; i++) dx[i] = -f[i];
+            DenseLU.solve(jacobian, N, pivot, dx);
+
+            //Keep temperature positive; concentrations are clipped at zero in the trial point
+            double lambda = 1;
+            int q = ReactorKernel.Q;
+            if (dx[q] < 0 && y[q] + dx[q] < 0.5 * y[q]) {
+                lambda = 0.5 * y[q] / -dx[q];
+            }
+
+            boolean converged = true;
+            for (int i = 0; i < N; i++) {
+                if (Math.abs(dx[i]) > absoluteTolerance + relativeTolerance * Math.abs(y[i])) {
+                    converged = false;
+                    break;
+                }
+            }
+            if (converged) {
+                for (int i = 0; i < N; i++) y[i] += dx[i];
+                return true;
+            }
+
+            double trialMerit;
+            do {
+                for (int i = 0; i < N; i++) trial[i] = Math.max(0, y[i] + lambda * dx[i]);
+                kernel.derivatives(trial, cCH4In, cC3H4In, cO2In, tIn, f);
+                trialMerit = merit(f, qScale);
+                if (trialMerit <= (1 - 1e-4 * lambda) * merit) break;
+                lambda /= 2;
+            } while (lambda > 1e-4);
+
+            System.arraycopy(trial, 0, y, 0, N);
+            merit = trialMerit;
+        }
+        return false;
+    }
+
+    private static double merit(double[] f, double qScale) {
+        double sum = 0;
+        for (int i = 0; i < ReactorKernel.Q; i++) {
+            sum += f[i] * f[i];
+        }
+        double fq = f[ReactorKernel.Q] * qScale;
+        return sum + fq * fq;
+    }
+
+    private double scaledDistance(double[] a, double[] b) {
+        double max = 0;
+        for (int i = 0; i < N; i++) {
+            double scale = Math.max(1e-9, Math.max(Math.abs(a[i]), Math.abs(b[i])));
+            max = Math.max(max, Math.abs(a[i] - b[i]) / scale);
+        }
+        return max;
+    }
+
+    private void coldStart(double[] out) {
+        kernel(params[0]).init(out, params[1], params[2], params[3], params[4]);
+    }
+
+    private ReactorKernel kernel(double volume) {
+        if (model.getVolume() != volume) {
+            model.setVolume(volume);
+        }
+        return model.getKernel();
+    }
+
+    private void remember(double[] solution, double[] p) {
+        System.arraycopy(solution, 0, known, 0, N);
+        System.arraycopy(p, 0, knownParams, 0, knownParams.length);
+        hasKnown = true;
+    }
+
+    private static void setParams(double[] p, double volume, double cCH4In, double cC3H4In, double cO2In, double tIn) {
+        p[0] = volume;
+        p[1] = cCH4In;
+        p[2] = cC3H4In;
+        p[3] = cO2In;
+        p[4] = tIn;
+    }
+
+    /**@return Newton iterations spent by the last call*/
+    public int getIterations() {
+        return iterations;
+    }
+
+    public CarbonReactor getModel() {
+        return model;
+    }
+
+    public double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    public void setRelativeTolerance(double relativeTolerance) {
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+
+    public void setAbsoluteTolerance(double absoluteTolerance) {
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public int getMaxContinuationDepth() {
+        return maxContinuationDepth;
+    }
+
+    public void setMaxContinuationDepth(int maxContinuationDepth) {
+        this.maxContinuationDepth = maxContinuationDepth;
+    }
+
+    public double getDistinctTolerance() {
+        return distinctTolerance;
+    }
+
+    public void setDistinctTolerance(double distinctTolerance) {
+        this.distinctTolerance = distinctTolerance;
+    }
+}
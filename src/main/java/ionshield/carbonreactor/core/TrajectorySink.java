@@ -0,0 +1,24 @@
+package ionshield.carbonreactor.core;
+
+/**
+ * Consumer of the samples of a reactor run, see {@link CarbonReactor#run}.
+ * The state array passed to {@link #accept} is live and is overwritten by the next step, so sinks copy what they keep.
+ */
+public interface TrajectorySink {
+    /**
+     * Called once before the first sample with the kernel of the run
+     */
+    default void begin(ReactorKernel kernel) {
+    }
+
+    /**
+     * @param state State indexed by {@link ReactorKernel} constants
+     */
+    void accept(double time, double[] state);
+
+    /**
+     * Called once after the last sample
+     */
+    default void end() {
+    }
+}
@@ -1,5 +1,6 @@
 package ionshield.carbonreactor.graphics;
 
+import ionshield.carbonreactor.math.GridSweep;
 import ionshield.carbonreactor.math.LineDouble;
 import ionshield.carbonreactor.math.PointDouble;
 
@@ -8,10 +9,13 @@ import java.awt.*;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 public class ContourGraphDisplay extends JPanel {
     private static final Color HIGH_COLOR = new Color(0x7fbff3);
@@ -21,9 +25,18 @@ public class ContourGraphDisplay extends JPanel {
     private static final Color POINT_COLOR = new Color(0x0044ff);
     private static final Color LINE_COLOR = new Color(0x66ff22);
     private static final Color BOUND_COLOR = new Color(0xff0000);
+    private static final int BATCH_GRAIN = 64;
 
     private BiFunction<Double, Double, Double> function;
+    private Supplier<? extends BiFunction<Double, Double, Double>> functionFactory;
+    private GridSweep.BatchFunction batchFunction;
     private FunctionCache cache;
+    private GridSweep sweep;
+    private List<Object> sweepKey;
+    //Settings of the last sweep that failed and its error, not retried until the settings change
+    private List<Object> failedKey;
+    private String sweepError;
+    private final Timer progressTimer = new Timer(200, e -> repaint());
     private List<BiFunction<Double, Double, Double>> bounds = new ArrayList<>();
     private java.util.function.Function<List<Double>, Double> penaltyFunction;
     private List<BiFunction<Double, Double, Double>> constraints = new ArrayList<>();
@@ -69,8 +82,28 @@ public class ContourGraphDisplay extends JPanel {
         /*if (cache != null && !Objects.equals(cache.getFunction().getFunctionExpressionString(), function.getFunctionExpressionString())) {
             cache.invalidate();
         }*/
+        this.functionFactory = null;
+        this.batchFunction = null;
         if (cache != null) cache.invalidate();
     }
+
+    /**
+     * Sets the function together with a factory of independent instances of it, so that the grid
+     * can be evaluated in parallel even if the function is not thread-safe
+     */
+    public void setFunction(BiFunction<Double, Double, Double> function, Supplier<? extends BiFunction<Double, Double, Double>> functionFactory) {
+        setFunction(function);
+        this.functionFactory = functionFactory;
+    }
+
+    /**
+     * Sets the function together with a thread-safe batch form of it, which evaluates the grid {@value #BATCH_GRAIN} nodes at a time.
+     * The function itself is still used for values outside the grid
+     */
+    public void setFunction(BiFunction<Double, Double, Double> function, GridSweep.BatchFunction batchFunction) {
+        setFunction(function);
+        this.batchFunction = batchFunction;
+    }
     
     
     @Override
@@ -78,11 +111,11 @@ public class ContourGraphDisplay extends JPanel {
         super.paintComponent(g);
     
         if (function != null && (cache == null || !cache.isValid())) {
-            cache = new FunctionCache(function, resolution, lowerX, upperX, lowerY, upperY, displayPenaltyFunction ? penaltyFunction : null, bounds, displayPenaltyFunction ? constraintPenaltyFunction : null, constraints);
+            startSweep();
         }
         
         drawGrid(g);
-        if (function != null) {
+        if (function != null && cache != null && cache.isValid()) {
             drawGraph(g);
         }
         if (bounds != null) {
@@ -101,6 +134,103 @@ public class ContourGraphDisplay extends JPanel {
         if (upperX != lowerX && upperY != lowerY) {
             drawValues(g);
         }
+        if (sweep != null) {
+            g.setColor(usingColors ? VALUE_COLOR : Color.GRAY);
+            g.drawString("Computing " + Math.round(sweep.getProgress() * 100) + "%", marginX + graphWidth() / 2 - 30, marginY + graphHeight() / 2);
+        }
+        else if (failedKey != null && failedKey.equals(sweepKey())) {
+            g.setColor(BOUND_COLOR);
+            g.drawString("Evaluation failed: " + sweepError, marginX + 10, marginY + graphHeight() / 2);
+        }
+    }
+
+    /**
+     * Evaluates the grid in the background unless the same grid is already being evaluated; repaints when done
+     */
+    private void startSweep() {
+        List<Object> key = sweepKey();
+        if (key.equals(failedKey)) {
+            return;
+        }
+        if (sweep != null) {
+            if (key.equals(sweepKey)) {
+                return;
+            }
+            sweep.cancel();
+        }
+
+        BiFunction<Double, Double, Double> function = this.function;
+        Supplier<? extends BiFunction<Double, Double, Double>> factory = functionFactory;
+        GridSweep.BatchFunction batch = batchFunction;
+        java.util.function.Function<List<Double>, Double> penalty = displayPenaltyFunction ? penaltyFunction : null;
+        java.util.function.Function<List<Double>, Double> constraintPenalty = displayPenaltyFunction ? constraintPenaltyFunction : null;
+        List<BiFunction<Double, Double, Double>> bounds = this.bounds != null ? new ArrayList<>(this.bounds) : new ArrayList<>();
+        List<BiFunction<Double, Double, Double>> constraints = this.constraints != null ? new ArrayList<>(this.constraints) : new ArrayList<>();
+        GridSweep current;
+        if (batch != null) {
+            BiFunction<Double, Double, Double> penalties = FunctionCache.penalized((x, y) -> 0.0, penalty, bounds, constraintPenalty, constraints);
+            current = new GridSweep((x, y, out) -> {
+                batch.evaluate(x, y, out);
+                for (int k = 0; k < out.length; k++) {
+                    out[k] += penalties.apply(x[k], y[k]);
+                }
+            }, resolution, lowerX, upperX, lowerY, upperY);
+            current.setGrain(BATCH_GRAIN);
+        }
+        else {
+            current = new GridSweep(() -> FunctionCache.penalized(factory != null ? factory.get() : function, penalty, bounds, constraintPenalty, constraints), resolution, lowerX, upperX, lowerY, upperY);
+        }
+        if (batch == null && factory == null) {
+            //A single instance of the function may not be thread-safe, so the whole grid is one task
+            current.setGrain(current.getTotal());
+        }
+        sweep = current;
+        sweepKey = key;
+        progressTimer.start();
+
+        new SwingWorker<GridSweep.Grid, Void>() {
+            @Override
+            protected GridSweep.Grid doInBackground() {
+                return current.run();
+            }
+
+            @Override
+            protected void done() {
+                if (sweep != current) {
+                    return;
+                }
+                sweep = null;
+                progressTimer.stop();
+                if (!key.equals(sweepKey())) {
+                    //Settings changed while evaluating
+                    repaint();
+                    return;
+                }
+                GridSweep.Grid grid;
+                try {
+                    grid = get();
+                }
+                catch (InterruptedException | ExecutionException e) {
+                    //The previous grid is kept and the failure shown instead of a grid of NaN
+                    Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                    failedKey = key;
+                    sweepError = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                    repaint();
+                    return;
+                }
+                failedKey = null;
+                sweepError = null;
+                cache = new FunctionCache(function, grid, penalty, bounds, constraintPenalty, constraints);
+                repaint();
+            }
+        }.execute();
+    }
+
+    /**@return Everything the cached grid depends on*/
+    private List<Object> sweepKey() {
+        return Arrays.asList(function, functionFactory, batchFunction, resolution, lowerX, upperX, lowerY, upperY,
+                displayPenaltyFunction ? penaltyFunction : null, bounds != null ? new ArrayList<>(bounds) : new ArrayList<>(),
+                displayPenaltyFunction ? constraintPenaltyFunction : null, constraints != null ? new ArrayList<>(constraints) : new ArrayList<>());
     }
     
     
@@ -687,7 +817,7 @@ public class ContourGraphDisplay extends JPanel {
 
     private static class FunctionCache {
         private BiFunction<Double, Double, Double> function;
-        private ArrayList<ArrayList<Double>> data;
+        private GridSweep.Grid grid;
         private int resolution;
         private double lowerX;
         private double upperX;
@@ -702,22 +832,20 @@ public class ContourGraphDisplay extends JPanel {
         private java.util.function.Function<List<Double>, Double> constraintPenaltyFunction;
         private List<BiFunction<Double, Double, Double>> constraints;
         
-        public FunctionCache(BiFunction<Double, Double, Double> function, int resolution, double lowerX, double upperX, double lowerY, double upperY, java.util.function.Function<List<Double>, Double> penaltyFunction, List<BiFunction<Double, Double, Double>> bounds, java.util.function.Function<List<Double>, Double> constraintPenaltyFunction, List<BiFunction<Double, Double, Double>> constraints) {
-            if (resolution < 1 || function == null) {
+        public FunctionCache(BiFunction<Double, Double, Double> function, GridSweep.Grid grid, java.util.function.Function<List<Double>, Double> penaltyFunction, List<BiFunction<Double, Double, Double>> bounds, java.util.function.Function<List<Double>, Double> constraintPenaltyFunction, List<BiFunction<Double, Double, Double>> constraints) {
+            if (grid == null || function == null) {
                 throw new IllegalArgumentException();
             }
             
-            double dx = (upperX - lowerX) / (double)resolution;
-            double dy = (upperY - lowerY) / (double)resolution;
-            min = Double.NaN;
-            max = Double.NaN;
-            
             this.function = function;
-            this.resolution = resolution;
-            this.lowerX = lowerX;
-            this.upperX = upperX;
-            this.lowerY = lowerY;
-            this.upperY = upperY;
+            this.grid = grid;
+            this.resolution = grid.getResolution();
+            this.lowerX = grid.getLowerX();
+            this.upperX = grid.getUpperX();
+            this.lowerY = grid.getLowerY();
+            this.upperY = grid.getUpperY();
+            this.min = grid.getMin();
+            this.max = grid.getMax();
             this.valid = true;
     
             this.penaltyFunction = penaltyFunction;
@@ -731,41 +859,30 @@ public class ContourGraphDisplay extends JPanel {
             if (this.constraints == null) {
                 this.constraints = new ArrayList<>();
             }
-            
-            data = new ArrayList<>();
-            for (int i = 0; i <= resolution; i++) {
-                data.add(new ArrayList<>());
-                for (int j = 0; j <= resolution; j++) {
-                    data.get(i).add(Double.NaN);
-                }
-            }
-            
-            for (int i = 0; i <= resolution; i++) {
-                for (int j = 0; j <= resolution; j++) {
-                    double val = function.apply(lowerX + dx * j, lowerY + dy * i);
-                    if (penaltyFunction != null) {
-                        List<Double> penaltyArgs = new ArrayList<>();
-                        for (int k = 0; k < bounds.size(); k++) {
-                            penaltyArgs.add(bounds.get(k).apply(lowerX + dx * j, lowerY + dy * i));
-                        }
-                        val += penaltyFunction.apply(penaltyArgs);
-                    }
-                    if (constraintPenaltyFunction != null) {
-                        List<Double> penaltyArgs = new ArrayList<>();
-                        for (int k = 0; k < constraints.size(); k++) {
-                            penaltyArgs.add(constraints.get(k).apply(lowerX + dx * j, lowerY + dy * i));
-                        }
-                        val += constraintPenaltyFunction.apply(penaltyArgs);
-                    }
-                    set(val, i, j);
-                    if ((Double.isNaN(min) && !Double.isNaN(val)) || val < min) {
-                        min = val;
+        }
+
+        /**
+         * @return Function with the bound and constraint penalties added, either of which may be null
+         */
+        public static BiFunction<Double, Double, Double> penalized(BiFunction<Double, Double, Double> function, java.util.function.Function<List<Double>, Double> penaltyFunction, List<BiFunction<Double, Double, Double>> bounds, java.util.function.Function<List<Double>, Double> constraintPenaltyFunction, List<BiFunction<Double, Double, Double>> constraints) {
+            return (x, y) -> {
+                double val = function.apply(x, y);
+                if (penaltyFunction != null) {
+                    List<Double> penaltyArgs = new ArrayList<>();
+                    for (int k = 0; k < bounds.size(); k++) {
+                        penaltyArgs.add(bounds.get(k).apply(x, y));
                     }
-                    if ((Double.isNaN(max) && !Double.isNaN(val)) || val > max) {
-                        max = val;
+                    val += penaltyFunction.apply(penaltyArgs);
+                }
+                if (constraintPenaltyFunction != null) {
+                    List<Double> penaltyArgs = new ArrayList<>();
+                    for (int k = 0; k < constraints.size(); k++) {
+                        penaltyArgs.add(constraints.get(k).apply(x, y));
                     }
+                    val += constraintPenaltyFunction.apply(penaltyArgs);
                 }
-            }
+                return val;
+            };
         }
         
         public double get(double x, double y) {
@@ -798,11 +915,7 @@ public class ContourGraphDisplay extends JPanel {
         }
     
         private double get(int row, int col) {
-            return data.get(row).get(col);
-        }
-        
-        private void set(double value, int row, int col) {
-            data.get(row).set(col, value);
+            return grid.get(row, col);
         }
     
         public BiFunction<Double, Double, Double> getFunction() {
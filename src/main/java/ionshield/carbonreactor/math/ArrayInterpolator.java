@@ -0,0 +1,93 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * Linear interpolator over primitive arrays of points sorted by x, behaving like {@link LinearInterpolator}.
+ * The arrays are used as they are, without copying.
+ */
+public class ArrayInterpolator implements Interpolator {
+    private final double[] x;
+    private final double[] y;
+    private final int size;
+
+    public ArrayInterpolator(double[] x, double[] y, int size) {
+        if (size < 0 || size > x.length || size > y.length) throw new IllegalArgumentException("Size does not fit the arrays");
+        this.x = x;
+        this.y = y;
+        this.size = size;
+    }
+
+    public ArrayInterpolator(double[] x, double[] y) {
+        this(x, y, Math.min(x.length, y.length));
+    }
+
+    @Override
+    public double lower() {
+        return x[0];
+    }
+
+    @Override
+    public double upper() {
+        return x[size - 1];
+    }
+
+    @Override
+    public double lowerVal() {
+        if (size == 0) return 0;
+        double res = Double.NaN;
+        for (int i = 0; i < size; i++) {
+            if (!Double.isNaN(y[i]) && !(y[i] >= res)) {
+                res = y[i];
+            }
+        }
+        return !Double.isNaN(res) ? res : -Double.MAX_VALUE;
+    }
+
+    @Override
+    public double upperVal() {
+        if (size == 0) return 0;
+        double res = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (Double.isNaN(y[i])) return Double.MAX_VALUE;
+            res = Math.max(res, y[i]);
+        }
+        return res;
+    }
+
+    @Override
+    public double evaluate(double value) {
+        if (size == 0) {
+            return 0;
+        }
+        if (size == 1) {
+            return y[0];
+        }
+        int i;
+        if (value <= x[0]) {
+            i = 0;
+        }
+        else if (value >= x[size - 1]) {
+            i = size - 2;
+        }
+        else {
+            //Last index with x[i] <= value
+            int lo = 0;
+            int hi = size - 1;
+            while (hi - lo > 1) {
+                int m = (lo + hi) >>> 1;
+                if (x[m] > value) {
+                    hi = m;
+                }
+                else {
+                    lo = m;
+                }
+            }
+            i = lo;
+        }
+        double alpha = (value - x[i]) / (x[i + 1] - x[i]);
+        return alpha * y[i + 1] + (1 - alpha) * y[i];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -1,27 +1,246 @@
 package ionshield.carbonreactor.math;
 
 import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multiplicative congruential generator x(n+1) = multiplier * x(n) mod modulus, starting from seed mod modulus
+ * and skipping the seed itself. Arithmetic is on primitive longs: the multiplier is reduced modulo the modulus first,
+ * so the product fits in a long for moduli up to {@link #DIRECT_LIMIT}; larger moduli use an exact 128-bit product.
+ * <p>
+ * Skipping k draws multiplies the state by multiplier^k, computed by squaring in O(log k), so a sequence can be cut
+ * into substreams that are generated independently and still concatenate to exactly the serial sequence.
+ */
+public class CongruentialRNG implements DoubleRNG {
+    /**Largest modulus whose reduced products fit in a long*/
+    public static final long DIRECT_LIMIT = 3037000499L;
+    /**Smallest number of values filled by one task of {@link #fillParallel}*/
+    public static final int PARALLEL_CHUNK = 1 << 15;
+
+    private long next;
+    private final long m;
+    private final long p;
 
-public class CongruentialRNG implements RNG<Double> {
-    private BigInteger next;
-    private BigInteger m;
-    private BigInteger p;
-    
     public CongruentialRNG(long seed, long multiplier, long modulus) {
-        this.next = BigInteger.valueOf(seed % modulus);
-        this.p = BigInteger.valueOf(multiplier);
-        this.m = BigInteger.valueOf(modulus);
-        getNext();
+        if (modulus <= 0) throw new IllegalArgumentException("Modulus must be positive");
+        this.m = modulus;
+        this.p = Math.floorMod(multiplier, modulus);
+        this.next = Math.floorMod(seed, modulus);
+        nextLong();
     }
-    
-    public BigInteger getNext() {
-        BigInteger curr = next;
-        next = p.multiply(curr).mod(m);
+
+    /**
+     * Copies the generator with its position
+     */
+    public CongruentialRNG(CongruentialRNG other) {
+        this.m = other.m;
+        this.p = other.p;
+        this.next = other.next;
+    }
+
+    /**@return Next value in [0, modulus)*/
+    public long nextLong() {
+        long curr = next;
+        next = multiply(p, curr);
         return curr;
     }
-    
+
+    private long multiply(long a, long b) {
+        return m <= DIRECT_LIMIT ? a * b % m : multiplyMod(a, b, m);
+    }
+
+    /**
+     * Skips the next {@code count} values in O(log count)
+     */
+    public void skip(long count) {
+        if (count < 0) throw new IllegalArgumentException("Cannot skip back");
+        long factor = 1 % m;
+        long base = p;
+        for (long k = count; k > 0; k >>>= 1) {
+            if ((k & 1) != 0) {
+                factor = multiply(factor, base);
+            }
+            base = multiply(base, base);
+        }
+        next = multiply(factor, next);
+    }
+
+    /**
+     * @return Independent generator whose first value is the value this one gives after {@code offset} more values;
+     * this one does not move
+     */
+    public CongruentialRNG substream(long offset) {
+        CongruentialRNG res = new CongruentialRNG(this);
+        res.skip(offset);
+        return res;
+    }
+
+    /**
+     * @return {@code count} generators, the i-th positioned {@code i * length} values ahead of this one, so that each
+     * produces the next {@code length} values of the sequence on its own; this one does not move
+     */
+    public CongruentialRNG[] partition(int count, long length) {
+        if (count < 0 || length < 0) throw new IllegalArgumentException("Partition count and length must be non-negative");
+        CongruentialRNG[] res = new CongruentialRNG[count];
+        CongruentialRNG curr = new CongruentialRNG(this);
+        for (int i = 0; i < count; i++) {
+            res[i] = new CongruentialRNG(curr);
+            curr.skip(length);
+        }
+        return res;
+    }
+
+    /**
+     * @deprecated Allocates a BigInteger per value, use {@link #nextLong()}
+     */
+    @Deprecated
+    public BigInteger getNext() {
+        return BigInteger.valueOf(nextLong());
+    }
+
+    /**@return Next value scaled to [0, 1)*/
+    @Override
+    public double nextDouble() {
+        return nextLong() / (double) m;
+    }
+
+    @Override
+    public double nextInRange(double start, double end) {
+        return (nextLong() / (double) m) * (end - start) + start;
+    }
+
     @Override
-    public Double getInRange(Double start, Double end) {
-        return (getNext().doubleValue() / m.doubleValue()) * (end - start) + start;
+    public void fill(double[] out, int from, int to, double start, double end) {
+        double width = end - start;
+        double md = m;
+        long x = next;
+        if (m <= DIRECT_LIMIT) {
+            for (int i = from; i < to; i++) {
+                out[i] = (x / md) * width + start;
+                x = p * x % m;
+            }
+        }
+        else {
+            for (int i = from; i < to; i++) {
+                out[i] = (x / md) * width + start;
+                x = multiplyMod(p, x, m);
+            }
+        }
+        next = x;
+    }
+
+    /**
+     * Same as {@link #fill(double[], double, double)}, with chunks of the array filled in parallel from substreams
+     */
+    public void fillParallel(double[] out, double start, double end) {
+        fillParallel(out, start, end, ForkJoinPool.commonPool());
+    }
+
+    public void fillParallel(double[] out, double start, double end, ForkJoinPool pool) {
+        if (out.length <= PARALLEL_CHUNK || pool.getParallelism() <= 1) {
+            fill(out, start, end);
+            return;
+        }
+        pool.invoke(new FillTask(new CongruentialRNG(this), out, 0, out.length, start, end));
+        skip(out.length);
+    }
+
+    private static class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        //Positioned at out[from]
+        private final CongruentialRNG rng;
+        private final double[] out;
+        private final int from;
+        private final int to;
+        private final double start;
+        private final double end;
+
+        FillTask(CongruentialRNG rng, double[] out, int from, int to, double start, double end) {
+            this.rng = rng;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                rng.fill(out, from, to, start, end);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FillTask(rng, out, from, mid, start, end), new FillTask(rng.substream(mid - from), out, mid, to, start, end));
+        }
+    }
+
+    /**
+     * @return a * b mod m for 0 <= a, b < m
+     */
+    static long multiplyMod(long a, long b, long m) {
+        long lo = a * b;
+        //hi < m, as the product is below m^2 < m * 2^64
+        long hi = multiplyHighUnsigned(a, b);
+        //Long division of the 128-bit product by m in two 32-bit digits, after shifting m up to its top bit
+        //so that each estimated digit is at most 2 too large (Knuth, algorithm D)
+        int shift = Long.numberOfLeadingZeros(m);
+        long v = m << shift;
+        long v1 = v >>> 32;
+        long v0 = v & 0xFFFFFFFFL;
+        //m < 2^63, so shift >= 1
+        long u32 = (hi << shift) | (lo >>> (64 - shift));
+        long u10 = lo << shift;
+        long u1 = u10 >>> 32;
+        long u0 = u10 & 0xFFFFFFFFL;
+
+        long u21 = divideStep(u32, u1, v, v1, v0);
+        return divideStep(u21, u0, v, v1, v0) >>> shift;
+    }
+
+    /**
+     * @return (u * 2^32 + digit) mod v for u < v, v with its top bit set and split into 32-bit halves v1, v0
+     */
+    private static long divideStep(long u, long digit, long v, long v1, long v0) {
+        //u may exceed 2^63, so it is halved for the signed division and the quotient corrected once
+        long q = ((u >>> 1) / v1) << 1;
+        long rhat = u - q * v1;
+        if (Long.compareUnsigned(rhat, v1) >= 0) {
+            q++;
+            rhat -= v1;
+        }
+        //At most two corrections
+        while (q > 0xFFFFFFFFL || Long.compareUnsigned(q * v0, (rhat << 32) | digit) > 0) {
+            q--;
+            rhat += v1;
+            if (rhat > 0xFFFFFFFFL) {
+                break;
+            }
+        }
+        return (u << 32) + digit - q * v;
+    }
+
+    /**
+     * @return High 64 bits of the unsigned 128-bit product
+     */
+    static long multiplyHighUnsigned(long a, long b) {
+        long a0 = a & 0xFFFFFFFFL;
+        long a1 = a >>> 32;
+        long b0 = b & 0xFFFFFFFFL;
+        long b1 = b >>> 32;
+        long t = a1 * b0 + ((a0 * b0) >>> 32);
+        long w1 = (t & 0xFFFFFFFFL) + a0 * b1;
+        return a1 * b1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    public long getModulus() {
+        return m;
+    }
+
+    /**@return Multiplier reduced modulo the modulus*/
+    public long getMultiplier() {
+        return p;
     }
 }
@@ -0,0 +1,75 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * In-place LU decomposition with partial pivoting for small dense matrices stored row-major in a flat array
+ */
+public abstract class DenseLU {
+    /**
+     * Decomposes {@code a} (n x n, row-major) in place
+     * @param pivot Receives row permutation, length at least n
+     * @return False if the matrix is numerically singular
+     */
+    public static boolean decompose(double[] a, int n, int[] pivot) {
+        for (int k = 0; k < n; k++) {
+            int p = k;
+            double max = Math.abs(a[k * n + k]);
+            for (int i = k + 1; i < n; i++) {
+                double v = Math.abs(a[i * n + k]);
+                if (v > max) {
+                    max = v;
+                    p = i;
+                }
+            }
+            pivot[k] = p;
+            if (max == 0 || Double.isNaN(max)) {
+                return false;
+            }
+            if (p != k) {
+                for (int j = 0; j < n; j++) {
+                    double t = a[k * n + j];
+                    a[k * n + j] = a[p * n + j];
+                    a[p * n + j] = t;
+                }
+            }
+            double inv = 1 / a[k * n + k];
+            for (int i = k + 1; i < n; i++) {
+                double l = a[i * n + k] * inv;
+                a[i * n + k] = l;
+                if (l != 0) {
+                    for (int j = k + 1; j < n; j++) {
+                        a[i * n + j] -= l * a[k * n + j];
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves {@code LU x = b} using the output of {@link #decompose}, overwriting {@code b} with {@code x}
+     */
+    public static void solve(double[] lu, int n, int[] pivot, double[] b) {
+        for (int k = 0; k < n; k++) {
+            int p = pivot[k];
+            if (p != k) {
+                double t = b[k];
+                b[k] = b[p];
+                b[p] = t;
+            }
+        }
+        for (int i = 1; i < n; i++) {
+            double sum = b[i];
+            for (int j = 0; j < i; j++) {
+                sum -= lu[i * n + j] * b[j];
+            }
+            b[i] = sum;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int j = i + 1; j < n; j++) {
+                sum -= lu[i * n + j] * b[j];
+            }
+            b[i] = sum / lu[i * n + i];
+        }
+    }
+}
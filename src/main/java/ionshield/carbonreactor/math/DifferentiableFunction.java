@@ -0,0 +1,19 @@
+package ionshield.carbonreactor.math;
+
+import java.util.function.BiFunction;
+
+/**
+ * Function of two variables that can produce its exact gradient together with its value
+ */
+public interface DifferentiableFunction extends BiFunction<Double, Double, Double> {
+    /**
+     * @param gradient Receives partial derivatives by x and y, may be null if only the value is needed
+     * @return Value of the function
+     */
+    double evaluate(double x, double y, double[] gradient);
+    
+    @Override
+    default Double apply(Double x, Double y) {
+        return evaluate(x, y, null);
+    }
+}
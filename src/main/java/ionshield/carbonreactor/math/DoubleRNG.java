@@ -0,0 +1,34 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * Generator of primitive doubles, without the boxing of {@link RNG#getInRange}
+ */
+public interface DoubleRNG extends RNG<Double> {
+    /**@return Next value in [0, 1)*/
+    double nextDouble();
+
+    default double nextInRange(double start, double end) {
+        return nextDouble() * (end - start) + start;
+    }
+
+    /**
+     * Fills the array with the next values in range, the same as repeated {@link #nextInRange} calls
+     */
+    default void fill(double[] out, double start, double end) {
+        fill(out, 0, out.length, start, end);
+    }
+
+    /**
+     * Fills {@code out[from, to)} with the next values in range
+     */
+    default void fill(double[] out, int from, int to, double start, double end) {
+        for (int i = from; i < to; i++) {
+            out[i] = nextInRange(start, end);
+        }
+    }
+
+    @Override
+    default Double getInRange(Double start, Double end) {
+        return nextInRange(start, end);
+    }
+}
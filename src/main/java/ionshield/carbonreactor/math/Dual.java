@@ -0,0 +1,131 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * Immutable number for forward-mode automatic differentiation over two variables, x and y of a function of two variables.
+ * Besides the value and the gradient it carries a directional part along a fixed seed vector v
+ * (the directional derivative and the gradient of it), so a single evaluation also yields the
+ * Hessian-vector product H * v. Leave the seed at zero if only the gradient is needed.
+ * All parts are plain fields, so an operation allocates one small object and no arrays.
+ */
+public final class Dual {
+    public static final int VARIABLES = 2;
+
+    private final double value;
+    private final double g0;
+    private final double g1;
+    private final double tangent;
+    private final double h0;
+    private final double h1;
+
+    private Dual(double value, double g0, double g1, double tangent, double h0, double h1) {
+        this.value = value;
+        this.g0 = g0;
+        this.g1 = g1;
+        this.tangent = tangent;
+        this.h0 = h0;
+        this.h1 = h1;
+    }
+
+    public static Dual constant(double value) {
+        return new Dual(value, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * @param index Index of the variable, 0 or 1
+     * @param seed Component of the direction v along this variable
+     */
+    public static Dual variable(double value, int index, double seed) {
+        if (index != 0 && index != 1) throw new IllegalArgumentException("Variable index must be 0 or 1");
+        return new Dual(value, index == 0 ? 1 : 0, index == 1 ? 1 : 0, seed, 0, 0);
+    }
+
+    public static Dual variable(double value, int index) {
+        return variable(value, index, 0);
+    }
+
+    public Dual add(Dual b) {
+        return new Dual(value + b.value, g0 + b.g0, g1 + b.g1, tangent + b.tangent, h0 + b.h0, h1 + b.h1);
+    }
+
+    public Dual add(double b) {
+        return new Dual(value + b, g0, g1, tangent, h0, h1);
+    }
+
+    public Dual sub(Dual b) {
+        return new Dual(value - b.value, g0 - b.g0, g1 - b.g1, tangent - b.tangent, h0 - b.h0, h1 - b.h1);
+    }
+
+    public Dual sub(double b) {
+        return new Dual(value - b, g0, g1, tangent, h0, h1);
+    }
+
+    public Dual negate() {
+        return mul(-1);
+    }
+
+    public Dual mul(Dual b) {
+        return new Dual(value * b.value,
+                value * b.g0 + g0 * b.value,
+                value * b.g1 + g1 * b.value,
+                value * b.tangent + tangent * b.value,
+                value * b.h0 + h0 * b.value + g0 * b.tangent + tangent * b.g0,
+                value * b.h1 + h1 * b.value + g1 * b.tangent + tangent * b.g1);
+    }
+
+    public Dual mul(double b) {
+        return new Dual(value * b, g0 * b, g1 * b, tangent * b, h0 * b, h1 * b);
+    }
+
+    public Dual div(Dual b) {
+        return mul(b.reciprocal());
+    }
+
+    public Dual div(double b) {
+        return mul(1 / b);
+    }
+
+    public Dual reciprocal() {
+        double inv = 1 / value;
+        return chain(inv, -inv * inv, 2 * inv * inv * inv);
+    }
+
+    public Dual exp() {
+        double e = Math.exp(value);
+        return chain(e, e, e);
+    }
+
+    public Dual sqrt() {
+        double s = Math.sqrt(value);
+        return chain(s, 0.5 / s, -0.25 / (s * value));
+    }
+
+    /**
+     * Applies a scalar function given its value and first two derivatives at this value
+     */
+    public Dual chain(double f, double df, double d2f) {
+        return new Dual(f, df * g0, df * g1, df * tangent, df * h0 + d2f * g0 * tangent, df * h1 + d2f * g1 * tangent);
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public double getGradient(int i) {
+        return i == 0 ? g0 : g1;
+    }
+
+    /**@return Directional derivative along the seed vector, gradient * v*/
+    public double getTangent() {
+        return tangent;
+    }
+
+    /**@return Component i of the Hessian-vector product H * v*/
+    public double getHessianTangent(int i) {
+        return i == 0 ? h0 : h1;
+    }
+
+    @Override
+    public String toString() {
+        return value + " + [" + g0 + ", " + g1 + "]e";
+    }
+}
@@ -0,0 +1,90 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * Nonlinear conjugate gradient (Polak-Ribiere) with a line search along every direction, which follows curved valleys
+ * such as penalty walls far better than steepest descent. Coordinates are scaled by the start step, so variables
+ * of different units move comparably. A {@link DifferentiableFunction} gives the gradient in one evaluation,
+ * any other function by finite differences.
+ */
+public class GradientSolver extends Solver {
+    private int maxIterations = 64;
+
+    /**
+     * @param data Start point and optionally the start step per coordinate, (1, 1) by default
+     */
+    @Override
+    protected PointDouble solveInternal(PointDouble... data) {
+        if (data.length < 1) {
+            throw new IllegalArgumentException("Not enough parameters passed to solver (required 1)");
+        }
+        PointDouble curr = data[0];
+        double scaleX = data.length >= 2 ? Math.abs(data[1].getX()) : 1;
+        double scaleY = data.length >= 2 ? Math.abs(data[1].getY()) : 1;
+        if (scaleX == 0 || scaleY == 0) throw new IllegalArgumentException("Start step must not be zero");
+        addPoint(curr);
+
+        //Gradient and search direction in scaled coordinates
+        double gx = 0;
+        double gy = 0;
+        double dx = 0;
+        double dy = 0;
+        boolean restart = true;
+        for (int i = 0; i < maxIterations; i++) {
+            PointDouble gradient = gradient(curr);
+            double nextGx = gradient.getX() * scaleX;
+            double nextGy = gradient.getY() * scaleY;
+            //Polak-Ribiere, falling back to steepest descent when it does not point downhill
+            double beta = restart ? 0 : Math.max(0, (nextGx * (nextGx - gx) + nextGy * (nextGy - gy)) / (gx * gx + gy * gy));
+            gx = nextGx;
+            gy = nextGy;
+            dx = -gx + beta * dx;
+            dy = -gy + beta * dy;
+            if (dx * gx + dy * gy >= 0) {
+                dx = -gx;
+                dy = -gy;
+                beta = 0;
+            }
+            double norm = Math.hypot(dx, dy);
+            if (!(norm > 0) || Double.isInfinite(norm)) {
+                break;
+            }
+            PointDouble next = findMinOnAxis(new PointDouble(dx / norm * scaleX, dy / norm * scaleY), curr);
+            addLine(curr, next);
+            addToLog("i = " + i + "; Solution: " + next.toString(PRECISION));
+            double moved = Math.hypot((next.getX() - curr.getX()) / scaleX, (next.getY() - curr.getY()) / scaleY);
+            curr = next;
+            if (moved < EPSILON && beta == 0) {
+                //Downhill is across a steep wall, so slide along it coordinate by coordinate
+                PointDouble start = curr;
+                if (gx != 0) {
+                    curr = findMinOnAxis(new PointDouble(-Math.signum(gx) * scaleX, 0), curr);
+                }
+                if (gy != 0) {
+                    curr = findMinOnAxis(new PointDouble(0, -Math.signum(gy) * scaleY), curr);
+                }
+                addLine(start, curr);
+                moved = Math.hypot((curr.getX() - start.getX()) / scaleX, (curr.getY() - start.getY()) / scaleY);
+                if (moved < EPSILON) {
+                    break;
+                }
+            }
+            //A stalled conjugate direction is retried downhill
+            restart = moved < EPSILON;
+        }
+        return curr;
+    }
+
+    @Override
+    protected int getLogBatchSize() {
+        return 1;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations < 1) throw new IllegalArgumentException("Number of iterations must be positive");
+        this.maxIterations = maxIterations;
+    }
+}
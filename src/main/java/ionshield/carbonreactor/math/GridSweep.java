@@ -0,0 +1,274 @@
+package ionshield.carbonreactor.math;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates a function of two variables on a rectangular grid of (resolution + 1)^2 nodes in parallel on a ForkJoin pool.
+ * Node (i, j) is at (lowerX + dx * j, lowerY + dy * i) and is stored at index i * (resolution + 1) + j.
+ * Functions that are not thread-safe are given by a supplier, which is called once per worker thread.
+ * A {@link BatchFunction} is instead given all nodes of a task at once, so it can evaluate them together.
+ * A sweep can be run once; its progress can be read and it can be cancelled from any thread.
+ */
+public class GridSweep {
+    private final Supplier<? extends BiFunction<Double, Double, Double>> functions;
+    private final BatchFunction batch;
+    private final int resolution;
+    private final double lowerX;
+    private final double upperX;
+    private final double lowerY;
+    private final double upperY;
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int grain = 1;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile boolean cancelled = false;
+
+    public GridSweep(Supplier<? extends BiFunction<Double, Double, Double>> functions, int resolution, double lowerX, double upperX, double lowerY, double upperY) {
+        this(functions, null, resolution, lowerX, upperX, lowerY, upperY);
+    }
+
+    /**
+     * @param batch Thread-safe function evaluating up to {@link #getGrain()} nodes per call
+     */
+    public GridSweep(BatchFunction batch, int resolution, double lowerX, double upperX, double lowerY, double upperY) {
+        this(null, batch, resolution, lowerX, upperX, lowerY, upperY);
+    }
+
+    private GridSweep(Supplier<? extends BiFunction<Double, Double, Double>> functions, BatchFunction batch, int resolution, double lowerX, double upperX, double lowerY, double upperY) {
+        if (resolution < 1) throw new IllegalArgumentException("Resolution must be positive");
+        this.functions = functions;
+        this.batch = batch;
+        this.resolution = resolution;
+        this.lowerX = lowerX;
+        this.upperX = upperX;
+        this.lowerY = lowerY;
+        this.upperY = upperY;
+    }
+
+    /**
+     * @param function Thread-safe function
+     */
+    public static GridSweep of(BiFunction<Double, Double, Double> function, int resolution, double lowerX, double upperX, double lowerY, double upperY) {
+        return new GridSweep(() -> function, resolution, lowerX, upperX, lowerY, upperY);
+    }
+
+    /**
+     * Evaluates all nodes, blocking until done
+     * @throws CancellationException If the sweep was cancelled
+     */
+    public Grid run() {
+        int side = resolution + 1;
+        double[] values = new double[side * side];
+        ThreadLocal<BiFunction<Double, Double, Double>> local = functions != null ? ThreadLocal.withInitial(functions) : null;
+        SweepTask task = new SweepTask(values, local, 0, values.length);
+        if (pool.getParallelism() <= 1) {
+            task.compute();
+        }
+        else {
+            pool.invoke(task);
+        }
+        if (cancelled) {
+            throw new CancellationException("Sweep cancelled");
+        }
+        return new Grid(values, resolution, lowerX, upperX, lowerY, upperY);
+    }
+
+    private class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] values;
+        private final ThreadLocal<BiFunction<Double, Double, Double>> local;
+        private final int from;
+        private final int to;
+
+        SweepTask(double[] values, ThreadLocal<BiFunction<Double, Double, Double>> local, int from, int to) {
+            this.values = values;
+            this.local = local;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SweepTask(values, local, from, mid), new SweepTask(values, local, mid, to));
+                return;
+            }
+            int side = resolution + 1;
+            double dx = (upperX - lowerX) / resolution;
+            double dy = (upperY - lowerY) / resolution;
+            if (batch != null) {
+                if (cancelled) {
+                    return;
+                }
+                double[] x = new double[to - from];
+                double[] y = new double[to - from];
+                double[] out = new double[to - from];
+                for (int k = from; k < to; k++) {
+                    x[k - from] = lowerX + dx * (k % side);
+                    y[k - from] = lowerY + dy * (k / side);
+                }
+                batch.evaluate(x, y, out);
+                System.arraycopy(out, 0, values, from, to - from);
+                completed.addAndGet(to - from);
+                return;
+            }
+            BiFunction<Double, Double, Double> f = local.get();
+            for (int k = from; k < to && !cancelled; k++) {
+                int i = k / side;
+                int j = k % side;
+                values[k] = f.apply(lowerX + dx * j, lowerY + dy * i);
+                completed.incrementAndGet();
+            }
+        }
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public double getLowerX() {
+        return lowerX;
+    }
+
+    public double getUpperX() {
+        return upperX;
+    }
+
+    public double getLowerY() {
+        return lowerY;
+    }
+
+    public double getUpperY() {
+        return upperY;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public int getTotal() {
+        return (resolution + 1) * (resolution + 1);
+    }
+
+    /**@return Fraction of nodes evaluated so far*/
+    public double getProgress() {
+        return completed.get() / (double) getTotal();
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**@return Largest number of nodes evaluated by one task without splitting*/
+    public int getGrain() {
+        return grain;
+    }
+
+    public void setGrain(int grain) {
+        if (grain < 1) throw new IllegalArgumentException("Grain must be positive");
+        this.grain = grain;
+    }
+
+    /**
+     * Function of two variables evaluated at many points per call
+     */
+    public interface BatchFunction {
+        /**
+         * Writes the values at points (x[k], y[k]) into out[k]
+         */
+        void evaluate(double[] x, double[] y, double[] out);
+    }
+
+    /**
+     * Values of a sweep with their extremes. NaN values are ignored by min and max, which are NaN if all values are.
+     */
+    public static class Grid {
+        private final double[] values;
+        private final int resolution;
+        private final double lowerX;
+        private final double upperX;
+        private final double lowerY;
+        private final double upperY;
+        private final double min;
+        private final double max;
+
+        public Grid(double[] values, int resolution, double lowerX, double upperX, double lowerY, double upperY) {
+            this.values = values;
+            this.resolution = resolution;
+            this.lowerX = lowerX;
+            this.upperX = upperX;
+            this.lowerY = lowerY;
+            this.upperY = upperY;
+            double min = Double.NaN;
+            double max = Double.NaN;
+            for (double v : values) {
+                if ((Double.isNaN(min) && !Double.isNaN(v)) || v < min) {
+                    min = v;
+                }
+                if ((Double.isNaN(max) && !Double.isNaN(v)) || v > max) {
+                    max = v;
+                }
+            }
+            this.min = min;
+            this.max = max;
+        }
+
+        /**@return Value at node (row, col), row along y and col along x*/
+        public double get(int row, int col) {
+            return values[row * (resolution + 1) + col];
+        }
+
+        /**@return Live row-major array of values*/
+        public double[] getValues() {
+            return values;
+        }
+
+        public int getResolution() {
+            return resolution;
+        }
+
+        public double getLowerX() {
+            return lowerX;
+        }
+
+        public double getUpperX() {
+            return upperX;
+        }
+
+        public double getLowerY() {
+            return lowerY;
+        }
+
+        public double getUpperY() {
+            return upperY;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
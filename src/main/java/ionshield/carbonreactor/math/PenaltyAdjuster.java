@@ -17,6 +17,9 @@ public class PenaltyAdjuster extends Solver {
     private double kMulti = 10;
     private double k = kStart;
     private int  displayIteration = -1;
+
+    //Relative step of the central differences of the penalties
+    private static final double PENALTY_STEP = 1e-6;
     
     public static final BiFunction<List<Double>, Double, Double> INVERSE_PENALTY_FUNCTION = (l, k) -> {
         double sum = 0;
@@ -198,19 +201,40 @@ public class PenaltyAdjuster extends Solver {
         return res;
     }
     
+    /**
+     * @return Function with the penalties added; differentiable if the function is, with the gradient of the penalties,
+     * which are cheap closed forms of the bounds and constraints, taken by central differences
+     */
     public static BiFunction<Double, Double, Double> getCombinedPenaltyFunction(BiFunction<Double, Double, Double> function, List<BiFunction<Double, Double, Double>> bounds, BiFunction<List<Double>, Double, Double> penaltyFunction, List<BiFunction<Double, Double, Double>> constraints, BiFunction<List<Double>, Double, Double> constraintPenaltyFunction, double k) {
-        return (x, y) -> {
-            List<Double> values = new ArrayList<>();
-            List<Double> values2 = new ArrayList<>();
-            for (BiFunction<Double, Double, Double> bound : bounds) {
-                values.add(bound.apply(x, y));
-            }
-            for (BiFunction<Double, Double, Double> constraint : constraints) {
-                values2.add(constraint.apply(x, y));
+        if (!(function instanceof DifferentiableFunction)) {
+            return (x, y) -> function.apply(x, y) + penalty(x, y, bounds, penaltyFunction, constraints, constraintPenaltyFunction, k);
+        }
+        DifferentiableFunction differentiable = (DifferentiableFunction) function;
+        return (DifferentiableFunction) (x, y, gradient) -> {
+            double value = differentiable.evaluate(x, y, gradient) + penalty(x, y, bounds, penaltyFunction, constraints, constraintPenaltyFunction, k);
+            if (gradient != null) {
+                double hx = PENALTY_STEP * Math.max(1, Math.abs(x));
+                double hy = PENALTY_STEP * Math.max(1, Math.abs(y));
+                gradient[0] += (penalty(x + hx, y, bounds, penaltyFunction, constraints, constraintPenaltyFunction, k)
+                        - penalty(x - hx, y, bounds, penaltyFunction, constraints, constraintPenaltyFunction, k)) / (2 * hx);
+                gradient[1] += (penalty(x, y + hy, bounds, penaltyFunction, constraints, constraintPenaltyFunction, k)
+                        - penalty(x, y - hy, bounds, penaltyFunction, constraints, constraintPenaltyFunction, k)) / (2 * hy);
             }
-            return function.apply(x, y) + penaltyFunction.apply(values, k) + constraintPenaltyFunction.apply(values2, k);
+            return value;
         };
     }
+
+    private static double penalty(double x, double y, List<BiFunction<Double, Double, Double>> bounds, BiFunction<List<Double>, Double, Double> penaltyFunction, List<BiFunction<Double, Double, Double>> constraints, BiFunction<List<Double>, Double, Double> constraintPenaltyFunction, double k) {
+        List<Double> values = new ArrayList<>();
+        List<Double> values2 = new ArrayList<>();
+        for (BiFunction<Double, Double, Double> bound : bounds) {
+            values.add(bound.apply(x, y));
+        }
+        for (BiFunction<Double, Double, Double> constraint : constraints) {
+            values2.add(constraint.apply(x, y));
+        }
+        return penaltyFunction.apply(values, k) + constraintPenaltyFunction.apply(values2, k);
+    }
     
     public Solver getSolver() {
         return solver;
@@ -1,7 +1,9 @@
 package ionshield.carbonreactor.math;
 
 import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class RandomProcessGenerator {
     private double m0;
@@ -13,12 +15,19 @@ public class RandomProcessGenerator {
 
     private double avg;
     private double dev;
+    //exp(-a2 * a0 * j) for j in [0, terms]
+    private double[] kernel;
+    private double scale;
 
     private boolean valid = false;
     //private List<Double> cache = new ArrayList<>();
     
     public List<Double> row;
     
+    public RandomProcessGenerator(double m0, double s0, double a0) {
+        this(m0, s0, a0, new ArrayList<>());
+    }
+
     public RandomProcessGenerator(double m0, double s0, double a0, List<Double> row) {
         this.m0 = m0;
         this.s0 = s0;
@@ -31,6 +40,8 @@ public class RandomProcessGenerator {
             avg = row.stream().mapToDouble(x -> x).average().orElse(0);
             dev = row.stream().mapToDouble(x -> (x - avg) * (x - avg)).average().orElse(0);
 
+            kernel = kernel();
+            scale = scale(dev);
             //cache = new ArrayList<>();
         }
         valid = true;
@@ -38,18 +49,110 @@ public class RandomProcessGenerator {
 
     public double getZ(int k) {
         requireValid();
-        if (k - 1 + nS >= row.size()) throw new IllegalArgumentException((k - 1) + " + " + nS + ": out of row bounds (" + (row.size() - 1) + ")");
+        checkBounds(k);
 
         double res = 0;
-        for (int i = k; i < k + nS; i++) {
-            double x = row.get(i - 1);
-            res += x * Math.sqrt(s0 / (dev * a0 * a2)) * a1 * Math.exp(-a2 * a0 * (i - k));
+        for (int j = 0; j < kernel.length - 1; j++) {
+            res += row.get(k - 1 + j) * kernel[j];
+        }
+        return scale * res / nS + m0;
+    }
+
+    /**
+     * Fills the array with {@code getZ(k)}, {@code getZ(k + 1)}, ... in O(1) per value instead of O(nS).
+     * The window sum is split at multiples of the window length into a suffix of one block, summed backwards once per block,
+     * and a prefix of the next one, summed forwards; both only scale by weights up to 1, so errors do not grow along the row.
+     * Values agree with {@link #getZ} to within about 1e-15 of {@code |m0| + scale * nS} (a few ulps),
+     * where {@code scale = a1 * sqrt(s0 / (dev * a0 * a2))}.
+     */
+    public void fillZ(double[] out, int k) {
+        requireValid();
+        if (out.length == 0) {
+            return;
+        }
+        checkBounds(k);
+        checkBounds(k + out.length - 1);
+        int n = kernel.length - 1;
+        if (n == 0) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = getZ(k + i);
+            }
+            return;
+        }
+
+        double r = kernel[1];
+        double[] suffix = new double[n];
+        double[] prefix = new double[n + 1];
+        int block = -1;
+        int base = 0;
+        for (int i = 0; i < out.length; i++) {
+            int s = k - 1 + i;
+            if (s / n != block) {
+                block = s / n;
+                base = block * n;
+                double acc = 0;
+                for (int t = n - 1; t >= s - base; t--) {
+                    acc = row.get(base + t) + r * acc;
+                    suffix[t] = acc;
+                }
+                int available = Math.min(n, row.size() - base - n);
+                for (int m = 0; m < available; m++) {
+                    prefix[m + 1] = prefix[m] + kernel[m] * row.get(base + n + m);
+                }
+            }
+            int tail = base + n - s;
+            out[i] = scale * (suffix[s - base] + kernel[tail] * prefix[n - tail]) / nS + m0;
+        }
+    }
+
+    private double[] kernel() {
+        int terms = nS > 0 ? (int) Math.ceil(nS) : 0;
+        double[] res = new double[terms + 1];
+        for (int j = 0; j <= terms; j++) {
+            res[j] = Math.exp(-a2 * a0 * j);
         }
-        res /= nS;
-        res += m0;
         return res;
     }
 
+    private double scale(double dev) {
+        return Math.sqrt(s0 / (dev * a0 * a2)) * a1;
+    }
+
+    /**
+     * Lazy equivalent of a generator over a row of {@code length} values {@code nextInRange(start, end)} of a random sequence.
+     * The row is never stored: the sequence is run twice for its mean and deviation, then a third time by the iterator,
+     * which keeps O(nS) values. The row of this generator is not used.
+     * @param source Factory of generators all giving the same sequence, called three times
+     */
+    public RandomProcessIterator iterator(Supplier<? extends DoubleRNG> source, double start, double end, int length) {
+        if (length < 0) throw new IllegalArgumentException("Row length must not be negative");
+        double[] buffer = new double[Math.min(length, 4096)];
+        DoubleSummaryStatistics values = new DoubleSummaryStatistics();
+        DoubleRNG rng = source.get();
+        for (int done = 0; done < length; done += buffer.length) {
+            int count = Math.min(buffer.length, length - done);
+            rng.fill(buffer, 0, count, start, end);
+            for (int i = 0; i < count; i++) {
+                values.accept(buffer[i]);
+            }
+        }
+        double mean = values.getAverage();
+        DoubleSummaryStatistics deviations = new DoubleSummaryStatistics();
+        rng = source.get();
+        for (int done = 0; done < length; done += buffer.length) {
+            int count = Math.min(buffer.length, length - done);
+            rng.fill(buffer, 0, count, start, end);
+            for (int i = 0; i < count; i++) {
+                deviations.accept((buffer[i] - mean) * (buffer[i] - mean));
+            }
+        }
+        return new RandomProcessIterator(m0, nS, scale(deviations.getAverage()), kernel(), source.get(), start, end, length);
+    }
+
+    private void checkBounds(int k) {
+        if (k < 1 || k - 1 + nS >= row.size()) throw new IllegalArgumentException((k - 1) + " + " + nS + ": out of row bounds (" + (row.size() - 1) + ")");
+    }
+
     public void invalidate() {
         valid = false;
     }
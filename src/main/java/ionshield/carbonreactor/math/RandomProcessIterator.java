@@ -0,0 +1,111 @@
+package ionshield.carbonreactor.math;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Values {@code getZ(1)}, {@code getZ(2)}, ... of a {@link RandomProcessGenerator} computed from raw values drawn on demand,
+ * see {@link RandomProcessGenerator#iterator}. Only the current and the next block of window length are kept, in a ring
+ * buffer of {@code 2 * ceil(nS)} values, and window sums are computed like in {@link RandomProcessGenerator#fillZ},
+ * so values are the same as those of a generator over the materialized row.
+ */
+public class RandomProcessIterator implements PrimitiveIterator.OfDouble {
+    private final double m0;
+    private final double nS;
+    private final double scale;
+    private final double[] kernel;
+    private final DoubleRNG rng;
+    private final double start;
+    private final double end;
+    private final int length;
+
+    private final int n;
+    private final double[] ring;
+    private final double[] suffix;
+    private final double[] prefix;
+    private int drawn = 0;
+    //Start of the next window in the row
+    private int s = 0;
+    private int base = -1;
+
+    RandomProcessIterator(double m0, double nS, double scale, double[] kernel, DoubleRNG rng, double start, double end, int length) {
+        this.m0 = m0;
+        this.nS = nS;
+        this.scale = scale;
+        this.kernel = kernel;
+        this.rng = rng;
+        this.start = start;
+        this.end = end;
+        this.length = length;
+        n = kernel.length - 1;
+        ring = new double[2 * n];
+        suffix = new double[n];
+        prefix = new double[n + 1];
+    }
+
+    @Override
+    public boolean hasNext() {
+        return s + nS < length;
+    }
+
+    @Override
+    public double nextDouble() {
+        if (!hasNext()) throw new NoSuchElementException("End of row (" + length + ") reached");
+        double res;
+        if (n == 0) {
+            res = scale * 0.0 / nS + m0;
+        }
+        else {
+            if (s - s % n != base) {
+                nextBlock(s - s % n);
+            }
+            int tail = base + n - s;
+            res = scale * (suffix[s - base] + kernel[tail] * prefix[n - tail]) / nS + m0;
+        }
+        s++;
+        return res;
+    }
+
+    /**
+     * Draws the block after {@code block}, dropping the one before it, and sums both
+     */
+    private void nextBlock(int block) {
+        base = block;
+        draw(Math.min(length, base + 2 * n));
+        double r = kernel[1];
+        double acc = 0;
+        for (int t = n - 1; t >= s - base; t--) {
+            acc = ring[(base + t) % ring.length] + r * acc;
+            suffix[t] = acc;
+        }
+        int available = Math.min(n, length - base - n);
+        for (int m = 0; m < available; m++) {
+            prefix[m + 1] = prefix[m] + kernel[m] * ring[(base + n + m) % ring.length];
+        }
+    }
+
+    private void draw(int to) {
+        while (drawn < to) {
+            int i = drawn % ring.length;
+            int count = Math.min(to - drawn, ring.length - i);
+            rng.fill(ring, i, i + count, start, end);
+            drawn += count;
+        }
+    }
+
+    /**@return Number of values left*/
+    public int getRemaining() {
+        return Math.max(0, (int) Math.ceil(length - nS) - s);
+    }
+
+    /**
+     * @return Sequential stream of the remaining values, which advances this iterator
+     */
+    public DoubleStream stream() {
+        return StreamSupport.doubleStream(Spliterators.spliterator(this, getRemaining(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
@@ -6,17 +6,15 @@ public abstract class SolverUtils {
     public static final Double EPSILON = 0.001;
     
     public static PointDouble gradient(BiFunction<Double, Double, Double> f, PointDouble point) {
+        double[] exact = exactDerivative(f, point, 1, 0, 0);
+        if (exact != null) {
+            return new PointDouble(exact[0], exact[1]);
+        }
         return new PointDouble(fdx(f, point, 1), fdy(f, point, 1));
     }
     
     public static double fdx(BiFunction<Double, Double, Double> f, PointDouble point, int order) {
-        if (order < 0) {
-            throw new IllegalArgumentException("Derivative order has to be non-negative");
-        }
-        if (order == 0) {
-            return f.apply(point.getX(), point.getY());
-        }
-        return (fdx(f, point.add(EPSILON, 0), order - 1) - fdx(f, point, order - 1)) / EPSILON;
+        return derivative(f, point, order, 0);
     }
     
     public static double fdx(BiFunction<Double, Double, Double> f, PointDouble point) {
@@ -24,17 +22,46 @@ public abstract class SolverUtils {
     }
     
     public static double fdy(BiFunction<Double, Double, Double> f, PointDouble point, int order) {
+        return derivative(f, point, order, 1);
+    }
+    
+    public static double fdy(BiFunction<Double, Double, Double> f, PointDouble point) {
+        return fdy(f, point, 1);
+    }
+
+    /**
+     * Derivative of the given order along x (axis 0) or y (axis 1): exact if f provides it, otherwise a forward difference
+     * of the derivative one order lower
+     */
+    private static double derivative(BiFunction<Double, Double, Double> f, PointDouble point, int order, int axis) {
         if (order < 0) {
             throw new IllegalArgumentException("Derivative order has to be non-negative");
         }
         if (order == 0) {
             return f.apply(point.getX(), point.getY());
         }
-        return (fdy(f, point.add(0, EPSILON), order - 1) - fdy(f, point, order - 1)) / EPSILON;
+        double[] exact = exactDerivative(f, point, order, axis == 0 ? 1 : 0, axis == 1 ? 1 : 0);
+        if (exact != null) {
+            return exact[axis];
+        }
+        PointDouble next = axis == 0 ? point.add(EPSILON, 0) : point.add(0, EPSILON);
+        return (derivative(f, next, order - 1, axis) - derivative(f, point, order - 1, axis)) / EPSILON;
     }
-    
-    public static double fdy(BiFunction<Double, Double, Double> f, PointDouble point) {
-        return fdy(f, point, 1);
+
+    /**
+     * @return Exact gradient for order 1 or Hessian times (vx, vy) for order 2, null if f cannot provide it
+     */
+    public static double[] exactDerivative(BiFunction<Double, Double, Double> f, PointDouble point, int order, double vx, double vy) {
+        double[] res = new double[2];
+        if (order == 1 && f instanceof DifferentiableFunction) {
+            ((DifferentiableFunction) f).evaluate(point.getX(), point.getY(), res);
+            return res;
+        }
+        if (order == 2 && f instanceof TwiceDifferentiableFunction) {
+            ((TwiceDifferentiableFunction) f).evaluate(point.getX(), point.getY(), null, vx, vy, res);
+            return res;
+        }
+        return null;
     }
     
     public static PointDouble findMinOnAxis(BiFunction<Double, Double, Double> f, PointDouble axis, PointDouble startPoint) {
@@ -0,0 +1,11 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * Generator that hands out independent streams, so every worker can own one without synchronization
+ */
+public interface SplittableRNG extends DoubleRNG {
+    /**
+     * @return Child generator statistically independent of this one, which moves on to a different stream
+     */
+    SplittableRNG split();
+}
@@ -0,0 +1,13 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * Differentiable function of two variables that can also produce the exact product of its Hessian with a vector
+ */
+public interface TwiceDifferentiableFunction extends DifferentiableFunction {
+    /**
+     * @param gradient Receives partial derivatives by x and y, may be null
+     * @param hessianVector Receives H * (vx, vy), may be null
+     * @return Value of the function
+     */
+    double evaluate(double x, double y, double[] gradient, double vx, double vy, double[] hessianVector);
+}
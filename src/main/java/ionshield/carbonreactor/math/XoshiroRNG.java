@@ -0,0 +1,106 @@
+package ionshield.carbonreactor.math;
+
+/**
+ * xoshiro256** generator with 256 bits of state and period 2^256 - 1, seeded through SplitMix64 so that any seed,
+ * including neighbouring ones, gives a well mixed state.
+ * <p>
+ * {@link #split()} hands the current stream to the child and jumps this generator 2^128 values ahead, so a parent and
+ * the children it splits off draw from disjoint parts of the period as long as each draws fewer than 2^128 values.
+ * Children must not be split in turn: every split jumps by the same distance, so a child's own children start exactly
+ * where its later siblings do. Split all streams off one generator instead. Splitting is deterministic: the same seed and
+ * the same order of splits give the same streams.
+ */
+public class XoshiroRNG implements SplittableRNG {
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final long[] JUMP = {0x180EC6D33CFD0ABAL, 0xD5A61266F0C9392CL, 0xA9582618E03FC9AAL, 0x39ABDC4529B1661CL};
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    public XoshiroRNG(long seed) {
+        long z = seed;
+        s0 = mix(z += GOLDEN);
+        s1 = mix(z += GOLDEN);
+        s2 = mix(z += GOLDEN);
+        s3 = mix(z + GOLDEN);
+    }
+
+    /**
+     * Copies the generator with its position
+     */
+    public XoshiroRNG(XoshiroRNG other) {
+        s0 = other.s0;
+        s1 = other.s1;
+        s2 = other.s2;
+        s3 = other.s3;
+    }
+
+    /**
+     * @return SplitMix64 finalizer of the value, a bijection on longs
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long nextLong() {
+        long res = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return res;
+    }
+
+    /**@return Next value in [0, 1) with 53 random bits*/
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public void fill(double[] out, int from, int to, double start, double end) {
+        double width = end - start;
+        for (int i = from; i < to; i++) {
+            out[i] = ((nextLong() >>> 11) * 0x1.0p-53) * width + start;
+        }
+    }
+
+    /**
+     * Skips the next 2^128 values
+     */
+    public void jump() {
+        long t0 = 0;
+        long t1 = 0;
+        long t2 = 0;
+        long t3 = 0;
+        for (long word : JUMP) {
+            for (int b = 0; b < 64; b++) {
+                if ((word & (1L << b)) != 0) {
+                    t0 ^= s0;
+                    t1 ^= s1;
+                    t2 ^= s2;
+                    t3 ^= s3;
+                }
+                nextLong();
+            }
+        }
+        s0 = t0;
+        s1 = t1;
+        s2 = t2;
+        s3 = t3;
+    }
+
+    @Override
+    public XoshiroRNG split() {
+        XoshiroRNG child = new XoshiroRNG(this);
+        jump();
+        return child;
+    }
+}